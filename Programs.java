@@ -15,172 +15,2168 @@ END
 
 // AssemblerPassOne.java
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import static java.nio.file.StandardOpenOption.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import A2.Assembler_PassTwo;
+import A3.MacroProcessor_PassOne;
+import A4.MacroProcessor_PassTwo;
+
+// Mnemonic class
+enum MClass { AD, IS, DL }
+
+// What a directive does, taken from its mnemonic; the opcode is only the number it is written as
+enum Role { NONE, START, END, LTORG, ENTRY, EXTRN, ORIGIN, EQU, DS, DC }
 
 class Tuple {
     String mnemonic, mclass, opcode;
-    int length;
+    MClass kind;
+    Role role = Role.NONE;
+    int code, length;
+
+    Tuple(String m, String c, String o, String l) {
+        mnemonic = m;
+        mclass = c;
+        opcode = o;
+        kind = MClass.valueOf(c);
+        code = Integer.parseInt(o);
+        length = Integer.parseInt(l);
+        if (kind != MClass.IS)
+            for (Role r : Role.values())
+                if (r.name().equals(m)) role = r;
+    }
+}
+
+// Immutable opcode table, a collision-free hash over the mnemonic characters built once
+class OpcodeTable {
+    final Tuple[] slots;
+    final int seed, mask;
+
+    // A mnemonic listed twice keeps its last row, as MOT.put did
+    OpcodeTable(Collection<Tuple> rows) {
+        Map<String, Tuple> unique = new LinkedHashMap<>();
+        for (Tuple t : rows) unique.put(t.mnemonic, t);
+        Collection<Tuple> tuples = unique.values();
+
+        int size = Integer.highestOneBit(Math.max(tuples.size(), 1)) * 4;
+        for (; size <= MAX_SIZE; size *= 2) {
+            for (int s = 1; s < 1000; s++) {
+                Tuple[] table = place(tuples, size, s);
+                if (table != null) {
+                    slots = table;
+                    seed = s;
+                    mask = size - 1;
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("no collision-free opcode table for " + tuples.size() + " mnemonics");
+    }
+
+    static final int MAX_SIZE = 1 << 20;
+
+    // Table placed earlier, slots and seed as found by the constructor above
+    OpcodeTable(Tuple[] slots, int seed) {
+        this.slots = slots;
+        this.seed = seed;
+        this.mask = slots.length - 1;
+    }
+
+    static Tuple[] place(Collection<Tuple> tuples, int size, int seed) {
+        Tuple[] table = new Tuple[size];
+        for (Tuple t : tuples) {
+            int slot = hash(t.mnemonic, seed) & (size - 1);
+            if (table[slot] != null) return null;
+            table[slot] = t;
+        }
+        return table;
+    }
+
+    static int hash(String s, int seed) {
+        int h = seed * 0x9E3779B9;
+        for (int i = 0; i < s.length(); i++)
+            h = (h ^ s.charAt(i)) * 0x01000193;
+        return h ^ (h >>> 15);
+    }
+
+    // Single probe, null if the token is not a mnemonic
+    Tuple get(String s) {
+        Tuple t = slots[hash(s, seed) & mask];
+        return t != null && t.mnemonic.equals(s) ? t : null;
+    }
+
+    // Opcode a directive is written with, -1 when the instruction set has none
+    int code(Role role) {
+        for (Tuple t : slots)
+            if (t != null && t.role == role) return t.code;
+        return -1;
+    }
+}
+
+// Instruction-set descriptor and its compiled cache. The descriptor has a row per mnemonic,
+// MNEMONIC CLASS OPCODE LENGTH, and a row per register, REG NAME NUMBER (AREG..DREG when it has
+// none). It is compiled into DESCRIPTOR.cache holding the opcode table already hashed, seed and
+// slot of every tuple, and the registers. The cache header keeps the descriptor's size and
+// modification time and a CRC32 of the rest; the cache is mapped on startup and rebuilt from the
+// descriptor when it is missing, stale or damaged.
+class InstructionSet {
+    static final int MAGIC = 0x49534131;   // "ISA1"
+    static final int HEADER = 24;
+
+    OpcodeTable mot;
+    Map<String, String> registers = new HashMap<>();
+
+    static InstructionSet load(String descriptor) throws IOException {
+        Path source = Paths.get(descriptor), cache = Paths.get(descriptor + ".cache");
+        long size = Files.size(source), modified = Files.getLastModifiedTime(source).toMillis();
+        if (Files.exists(cache)) {
+            InstructionSet isa = read(cache, size, modified);
+            if (isa != null) return isa;
+        }
+
+        InstructionSet isa = compile(source);
+        try {
+            isa.write(cache, size, modified);
+        } catch (IOException e) {
+            // Cache directory not writable, the descriptor is compiled again next time
+        }
+        return isa;
+    }
+
+    static InstructionSet compile(Path descriptor) throws IOException {
+        InstructionSet isa = new InstructionSet();
+        List<Tuple> tuples = new ArrayList<>();
+        for (String row : Files.readAllLines(descriptor)) {
+            String[] arr = row.trim().split("\\s+");
+            if (arr.length >= 3 && arr[0].equals("REG")) isa.registers.put(arr[1], arr[2]);
+            else if (arr.length >= 4) tuples.add(new Tuple(arr[0], arr[1], arr[2], arr[3]));
+        }
+        if (isa.registers.isEmpty())
+            for (int r = 1; r <= 4; r++) isa.registers.put((char) ('A' + r - 1) + "REG", String.valueOf(r));
+        isa.mot = new OpcodeTable(tuples);
+        return isa;
+    }
+
+    void write(Path cache, long size, long modified) throws IOException {
+        int tuples = 0, bytes = 16;
+        for (Tuple t : mot.slots) {
+            if (t == null) continue;
+            tuples++;
+            bytes += 14 + 3 * (t.mnemonic.length() + t.mclass.length() + t.opcode.length());
+        }
+        for (Map.Entry<String, String> r : registers.entrySet())
+            bytes += 4 + 3 * (r.getKey().length() + r.getValue().length());
+
+        ByteBuffer body = ByteBuffer.allocate(bytes);
+        body.putInt(mot.seed).putInt(mot.slots.length).putInt(tuples);
+        for (int slot = 0; slot < mot.slots.length; slot++) {
+            Tuple t = mot.slots[slot];
+            if (t == null) continue;
+            body.putInt(slot);
+            string(body, t.mnemonic);
+            string(body, t.mclass);
+            string(body, t.opcode);
+            body.putInt(t.length);
+        }
+        body.putInt(registers.size());
+        for (Map.Entry<String, String> r : registers.entrySet()) {
+            string(body, r.getKey());
+            string(body, r.getValue());
+        }
+        body.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putLong(size).putLong(modified).putInt((int) crc.getValue()).flip();
+        try (FileChannel ch = FileChannel.open(cache, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer[] both = { header, body };
+            while (body.hasRemaining()) ch.write(both);
+        }
+    }
+
+    // Decode a cache made from this version of the descriptor, null if it is stale or damaged
+    static InstructionSet read(Path cache, long size, long modified) {
+        try (FileChannel ch = FileChannel.open(cache, StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC || buf.getLong() != size || buf.getLong() != modified) return null;
+            int checksum = buf.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate());
+            if ((int) crc.getValue() != checksum) return null;
+
+            InstructionSet isa = new InstructionSet();
+            int seed = buf.getInt();
+            Tuple[] slots = new Tuple[buf.getInt()];
+            for (int n = buf.getInt(); n > 0; n--) {
+                int slot = buf.getInt();
+                slots[slot] = new Tuple(string(buf), string(buf), string(buf), String.valueOf(buf.getInt()));
+            }
+            for (int n = buf.getInt(); n > 0; n--)
+                isa.registers.put(string(buf), string(buf));
+            isa.mot = new OpcodeTable(slots, seed);
+            return isa;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static void string(ByteBuffer buf, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buf.putShort((short) b.length).put(b);
+    }
+
+    static String string(ByteBuffer buf) {
+        byte[] b = new byte[buf.getShort()];
+        buf.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
+
+// Symbol table with dense ids given at first sight, addresses held in an array indexed by id
+class SymbolTable {
+    static final int UNDEFINED = -1;
+
+    ArrayList<String> names = new ArrayList<>();
+    int[] address = new int[64];
+    boolean[] absolute = new boolean[64];   // value is a constant from EQU, not an address
+    Map<String, Integer> ids = new HashMap<>();
+
+    // Ids named by EXTRN and ENTRY, in source order
+    ArrayList<Integer> externs = new ArrayList<>(), entries = new ArrayList<>();
+    int[] externDecl = new int[64];     // EXTRN declarations of each id, so missing() is one load
+
+    // Id of the symbol, entered as undefined on first sight
+    int ref(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+            if (id == address.length) {
+                address = Arrays.copyOf(address, id * 2);
+                absolute = Arrays.copyOf(absolute, id * 2);
+                externDecl = Arrays.copyOf(externDecl, id * 2);
+            }
+            address[id] = UNDEFINED;
+            absolute[id] = false;
+            externDecl[id] = 0;
+        }
+        return id;
+    }
+
+    // Label definition, keeps the first address given to the symbol
+    void define(String name, int addr) {
+        define(name, addr, false);
+    }
+
+    // EQU definition, abs when the value does not depend on where the module is loaded
+    void define(String name, int value, boolean abs) {
+        int id = ref(name);
+        if (address[id] == UNDEFINED) {
+            address[id] = value;
+            absolute[id] = abs;
+        }
+    }
+
+    // DC/DS definition, always takes the new address
+    void set(String name, int addr) {
+        int id = ref(name);
+        address[id] = addr;
+        absolute[id] = false;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    // Forget every symbol with id >= n
+    void truncate(int n) {
+        for (int id = names.size() - 1; id >= n; id--)
+            ids.remove(names.remove(id));
+    }
+
+    void declareExtern(int id) {
+        externs.add(id);
+        externDecl[id]++;
+    }
+
+    // Forget the EXTRN declarations after the first n
+    void truncateExterns(int n) {
+        while (externs.size() > n) externDecl[externs.remove(externs.size() - 1)]--;
+    }
+
+    String addressText(int id) {
+        return address[id] == UNDEFINED ? "-" : String.valueOf(address[id]);
+    }
+
+    // Undefined and not declared EXTRN, another module cannot supply it
+    boolean missing(int id) {
+        return address[id] == UNDEFINED && externDecl[id] == 0;
+    }
+}
+
+// Lines referring to each symbol, by symbol id. A symbol's postings are the gaps between its
+// successive line numbers in a growable int array, the last line is kept to take the next gap.
+class CrossReference {
+    int[][] gaps = new int[64][];
+    int[] count = new int[64], last = new int[64];
+
+    // Line lineNo refers to symbol id, lines arrive in increasing order
+    void add(int id, int lineNo) {
+        if (id >= gaps.length) {
+            int n = Math.max(id + 1, gaps.length * 2);
+            gaps = Arrays.copyOf(gaps, n);
+            count = Arrays.copyOf(count, n);
+            last = Arrays.copyOf(last, n);
+        }
+        if (count[id] > 0 && last[id] == lineNo) return;
+
+        int c = count[id];
+        if (gaps[id] == null) gaps[id] = new int[4];
+        else if (c == gaps[id].length) gaps[id] = Arrays.copyOf(gaps[id], c * 2);
+        gaps[id][c] = c > 0 ? lineNo - last[id] : lineNo;
+        count[id] = c + 1;
+        last[id] = lineNo;
+    }
+
+    // Line numbers referring to symbol id
+    int[] lines(int id) {
+        if (id >= gaps.length) return new int[0];
+        int[] lines = new int[count[id]];
+        for (int i = 0, line = 0; i < lines.length; i++)
+            lines[i] = line += gaps[id][i];
+        return lines;
+    }
+
+    // Forget symbols with id >= symbols and every reference from line fromLine on
+    void truncate(int symbols, int fromLine) {
+        for (int id = 0; id < gaps.length; id++) {
+            if (id >= symbols) count[id] = 0;
+            while (count[id] > 0 && last[id] >= fromLine)
+                last[id] -= gaps[id][--count[id]];
+        }
+    }
+}
+
+class LitTuple {
+    String literal, address;
+    LitTuple(String l, String a) {
+        literal = l;
+        address = a;
+    }
+}
+
+// Interns tokens read from a byte buffer, each distinct token becomes a String only once
+class TokenPool {
+    byte[][] keys = new byte[1024][];
+    String[] values = new String[1024];
+    int size = 0;
+
+    String intern(ByteBuffer buf, int start, int end) {
+        int hash = hash(buf, start, end);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (sameBytes(keys[slot], buf, start, end)) return values[slot];
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] key = new byte[end - start];
+        for (int i = 0; i < key.length; i++)
+            key[i] = buf.get(start + i);
+        String value = new String(key, StandardCharsets.ISO_8859_1);
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) grow();
+        return value;
+    }
+
+    static int hash(ByteBuffer buf, int start, int end) {
+        int h = 0x811c9dc5;
+        for (int i = start; i < end; i++)
+            h = (h ^ buf.get(i)) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    static boolean sameBytes(byte[] key, ByteBuffer buf, int start, int end) {
+        if (key.length != end - start) return false;
+        for (int i = 0; i < key.length; i++)
+            if (key[i] != buf.get(start + i)) return false;
+        return true;
+    }
+
+    void grow() {
+        byte[][] oldKeys = keys;
+        String[] oldValues = values;
+        keys = new byte[oldKeys.length * 2][];
+        values = new String[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = hash(ByteBuffer.wrap(oldKeys[i]), 0, oldKeys[i].length) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
+
+// Memory-mapped source reader, splits lines into tokens on blanks and commas without copying
+class SourceScanner implements Closeable {
+    static final long WINDOW = 1L << 30;
+
+    FileChannel channel;
+    boolean ownsChannel;
+    MappedByteBuffer buf;
+    long fileSize, windowStart;
+    int pos, windowEnd;
+    int[] tokStart = new int[8], tokEnd = new int[8];
+    int count;
+    int lineNo, lineStart;      // 1-based number and start offset of the current line
+    TokenPool pool = new TokenPool();
+
+    SourceScanner(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        ownsChannel = true;
+        fileSize = channel.size();
+        mapWindow(0);
+    }
+
+    // Scan only the bytes [start, end) of an open file, end must fall on a line boundary
+    SourceScanner(FileChannel channel, long start, long end) throws IOException {
+        this.channel = channel;
+        fileSize = end;
+        mapWindow(start);
+    }
+
+    // Map the next window of the file, cut at the last complete line
+    void mapWindow(long start) throws IOException {
+        windowStart = start;
+        long len = Math.min(WINDOW, fileSize - start);
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        windowEnd = (int) len;
+        if (start + len < fileSize) {
+            while (windowEnd > 0 && buf.get(windowEnd - 1) != '\n') windowEnd--;
+            if (windowEnd == 0) throw new IOException("Source line longer than " + WINDOW + " bytes");
+        }
+        pos = 0;
+    }
+
+    // Advance to the next line, returns false at end of file
+    boolean nextLine() throws IOException {
+        if (pos >= windowEnd) {
+            if (windowStart + windowEnd >= fileSize) return false;
+            mapWindow(windowStart + windowEnd);
+        }
+
+        count = 0;
+        lineNo++;
+        lineStart = pos;
+        while (pos < windowEnd) {
+            byte b = buf.get(pos);
+            if (b == '\n') {
+                pos++;
+                break;
+            }
+            if (separator(b)) {
+                pos++;
+                continue;
+            }
+
+            int start = pos;
+            while (pos < windowEnd) {
+                b = buf.get(pos);
+                if (b == '\n' || separator(b)) break;
+                pos++;
+            }
+            if (count == tokStart.length) {
+                tokStart = Arrays.copyOf(tokStart, count * 2);
+                tokEnd = Arrays.copyOf(tokEnd, count * 2);
+            }
+            tokStart[count] = start;
+            tokEnd[count] = pos;
+            count++;
+        }
+        return true;
+    }
+
+    // Blanks, commas, tabs and carriage returns separate tokens, for every reader of source text
+    static boolean separator(int c) {
+        return c == ' ' || c == ',' || c == '\t' || c == '\r';
+    }
+
+    // Tokens of a line of text, split on the same separators as a mapped line
+    static String[] split(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0, n = text.length();
+        while (i < n) {
+            if (separator(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < n && !separator(text.charAt(i))) i++;
+            tokens.add(text.substring(start, i));
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    int tokenCount() {
+        return count;
+    }
+
+    String token(int i) {
+        return pool.intern(buf, tokStart[i], tokEnd[i]);
+    }
+
+    // 1-based column of token i in the current line
+    int column(int i) {
+        return tokStart[i] - lineStart + 1;
+    }
+
+    public void close() throws IOException {
+        if (ownsChannel) channel.close();
+    }
+}
+
+// Fixed-width binary intermediate code written through a FileChannel. After a 4 byte magic,
+// every record is: lc (int), class (byte, 1 AD 2 IS 3 DL), opcode (byte), register (byte),
+// operand kind (byte, 0 none or 'C' 'S' 'L'), operand id or constant (int).
+class BinaryIC implements Closeable {
+    static final int MAGIC = 0x49433031;   // "IC01"
+    static final int RECORD = 12;
+
+    static final ByteBuffer END_OF_IC = ByteBuffer.allocate(0);
+
+    FileChannel channel;
+    BlockingQueue<ByteBuffer> queue;
+    ByteBuffer buf = ByteBuffer.allocateDirect(RECORD * 8192);
+
+    BinaryIC(String filename) throws IOException {
+        channel = FileChannel.open(Paths.get(filename), CREATE, WRITE, TRUNCATE_EXISTING);
+        buf.putInt(MAGIC);
+    }
+
+    // Hand full blocks of records to an in-memory consumer instead of a file,
+    // END_OF_IC follows the last block
+    BinaryIC(BlockingQueue<ByteBuffer> queue) {
+        this.queue = queue;
+        buf = ByteBuffer.allocate(RECORD * 8192);
+    }
+
+    void write(SourceLine line) throws IOException {
+        if (buf.remaining() < RECORD) flush();
+        encode(line, buf);
+    }
+
+    // Append records already encoded elsewhere
+    void write(ByteBuffer records) throws IOException {
+        flush();
+        if (queue != null) put(records);
+        else while (records.hasRemaining()) channel.write(records);
+    }
+
+    void put(ByteBuffer block) throws IOException {
+        try {
+            queue.put(block);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pass II stopped taking intermediate code");
+        }
+    }
+
+    static void encode(SourceLine line, ByteBuffer buf) {
+        Tuple t = line.t;
+        int reg = 0, kind = 0, id = 0;
+        switch (t.kind) {
+            case AD:
+                if (t.role == Role.START) {
+                    kind = 'C';
+                    id = line.origin;
+                } else if (t.role == Role.ORIGIN || t.role == Role.EQU) {
+                    kind = 'C';
+                    id = line.value;
+                }
+                break;
+            case IS:
+                for (int i = 0; i < line.opCount; i++) {
+                    if (line.opKind[i] == 'R' && reg == 0) {
+                        reg = line.opVal[i];
+                    } else if (line.opKind[i] != 'R' && kind == 0) {
+                        kind = line.opKind[i];
+                        id = line.opVal[i];
+                    }
+                }
+                break;
+            case DL:
+                kind = 'C';
+                id = line.value;
+                break;
+        }
+        buf.putInt(line.lc)
+           .put((byte) (t.kind.ordinal() + 1))
+           .put((byte) t.code)
+           .put((byte) reg)
+           .put((byte) kind)
+           .putInt(id);
+    }
+
+    void flush() throws IOException {
+        buf.flip();
+        if (queue != null) {
+            if (buf.hasRemaining()) {
+                put(buf);
+                buf = ByteBuffer.allocate(RECORD * 8192);
+            } else {
+                buf.clear();
+            }
+            return;
+        }
+        while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (queue != null) put(END_OF_IC);
+        else channel.close();
+    }
+}
+
+// Text intermediate code encoded straight into the writer's own byte buffer and written in
+// large blocks, to output_pass1.txt and/or the console. Nothing is allocated per line.
+class ICTextWriter implements Closeable {
+    static final String NEWLINE = System.lineSeparator();
+
+    FileChannel channel;    // null when only echoing
+    boolean echo;
+    ByteBuffer buf = ByteBuffer.allocate(1 << 16);   // one per open writer, reused for every block
+
+    ICTextWriter(String filename, boolean echo) throws IOException {
+        if (filename != null) channel = FileChannel.open(Paths.get(filename), CREATE, WRITE, TRUNCATE_EXISTING);
+        this.echo = echo;
+    }
+
+    // Same text as AssemblerPassOne.format, followed by a line separator
+    void write(SourceLine line) throws IOException {
+        Tuple t = line.t;
+        room(64 + 16 * line.opCount + (t.kind == MClass.DL ? line.tokens[line.index + 1].length() : 0));
+        switch (t.kind) {
+            case AD:
+                if (t.role == Role.START) {
+                    ascii("(AD,");
+                    ascii(t.opcode);
+                    ascii(") (C,");
+                    number(line.origin);
+                    ascii(")");
+                } else if (t.role == Role.ORIGIN || t.role == Role.EQU) {
+                    ascii("(AD,");
+                    ascii(t.opcode);
+                    ascii(") (C,");
+                    number(line.value);
+                    ascii(")");
+                } else {
+                    ascii("(AD,");
+                    ascii(t.opcode);
+                    ascii(")");
+                }
+                break;
+            case IS:
+                opcode(line);
+                for (int i = 0; i < line.opCount; i++) {
+                    if (line.opKind[i] == 'R') {
+                        number(line.opVal[i]);
+                        buf.put((byte) ' ');
+                    } else {
+                        buf.put((byte) '(').put((byte) line.opKind[i]).put((byte) ',');
+                        number(line.opVal[i]);
+                        ascii(") ");
+                    }
+                }
+                break;
+            case DL:
+                opcode(line);
+                ascii("(C,");
+                ascii(line.tokens[line.index + 1]);
+                ascii(")");
+                break;
+        }
+        ascii(NEWLINE);
+    }
+
+    // Text already formatted elsewhere, written as is
+    void write(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            if (!buf.hasRemaining()) flush();
+            buf.put((byte) text.charAt(i));
+        }
+    }
+
+    void opcode(SourceLine line) {
+        number(line.lc);
+        ascii(" (");
+        ascii(line.t.mclass);
+        buf.put((byte) ',');
+        ascii(line.t.opcode);
+        ascii(") ");
+    }
+
+    void ascii(String s) {
+        for (int i = 0; i < s.length(); i++)
+            buf.put((byte) s.charAt(i));
+    }
+
+    void number(int v) {
+        if (v < 0) {
+            buf.put((byte) '-');
+            v = -v;
+        }
+        int digits = 1;
+        for (int p = v; p >= 10; p /= 10) digits++;
+        int end = buf.position() + digits;
+        for (int i = end - 1; i >= buf.position(); i--) {
+            buf.put(i, (byte) ('0' + v % 10));
+            v /= 10;
+        }
+        buf.position(end);
+    }
+
+    void room(int n) throws IOException {
+        if (buf.remaining() < n) flush();
+    }
+
+    void flush() throws IOException {
+        if (echo) System.out.write(buf.array(), 0, buf.position());
+        buf.flip();
+        if (channel != null)
+            while (buf.hasRemaining()) channel.write(buf);
+        buf.clear();
+    }
+
+    public void close() throws IOException {
+        flush();
+        if (echo) System.out.flush();
+        if (channel != null) channel.close();
+    }
+}
+
+// Errors found by Pass I, kept as parallel int arrays so a source with many bad lines stays
+// compact. Assembly goes on past every error and all of them are reported at the end.
+class Diagnostics {
+    static final int UNKNOWN_MNEMONIC = 1, MISSING_OPERAND = 2, BAD_CONSTANT = 3, UNDEFINED_IN_EXPRESSION = 4;
+    static final String[] MESSAGE = { "", "unknown mnemonic", "missing operand", "bad constant",
+            "symbol in expression not defined yet" };
+
+    int size;
+    int[] line = new int[16], column = new int[16], kind = new int[16];
+
+    void add(int lineNo, int col, int k) {
+        if (size == line.length) {
+            line = Arrays.copyOf(line, size * 2);
+            column = Arrays.copyOf(column, size * 2);
+            kind = Arrays.copyOf(kind, size * 2);
+        }
+        line[size] = lineNo;
+        column[size] = col;
+        kind[size] = k;
+        size++;
+    }
+
+    // Symbols referenced but never defined (nor declared EXTRN) count as errors too
+    int count(SymbolTable symtab) {
+        int n = size;
+        for (int id = 0; id < symtab.size(); id++)
+            if (symtab.missing(id)) n++;
+        return n;
+    }
+
+    void report(PrintStream out, String filename, SymbolTable symtab) {
+        for (int i = 0; i < size; i++)
+            out.println(filename + ":" + line[i] + ":" + column[i] + ": " + MESSAGE[kind[i]]);
+        for (int id = 0; id < symtab.size(); id++)
+            if (symtab.missing(id))
+                out.println(filename + ": undefined symbol " + symtab.names.get(id));
+
+        int n = count(symtab);
+        if (n > 0) out.println(n + (n == 1 ? " error" : " errors"));
+    }
+}
+
+// One analysed source line and where it lands in memory
+class SourceLine {
+    String[] tokens;
+    int count;
+    int index;          // position of the mnemonic, 1 when the line has a label
+    Tuple t;
+    int length;         // words the line allocates
+    int origin = -1;    // new lc set by START or a constant ORIGIN, -1 otherwise
+    int value;          // constant operand of START, DS and DC, the value of ORIGIN and EQU once bound
+    String base;        // symbol an ORIGIN/EQU expression adds value to, null for a plain constant
+    int baseColumn;     // column of that expression, for errors found while binding
+    int lineNo;
+    int error;          // Diagnostics kind found by analyse, 0 if none
+    int errorToken;     // token the error points at
+    int relLc;          // lc relative to the start of its chunk segment (parallel mode)
+    int lc;
+    char[] opKind = new char[4];
+    int[] opVal = new int[4];
+    int opCount;
+
+    void set(String[] tokens, int count) {
+        this.tokens = tokens;
+        this.count = count;
+    }
+}
+
+public class AssemblerPassOne {
+    // Shared by every compilation, read-only once initializeTables has run
+    static String ISA = "mot.txt";     // instruction-set descriptor, see InstructionSet
+    static OpcodeTable MOT;
+    static Map<String, String> REGTAB;
+
+    // State of one compilation
+    int lc = 0;
+    SymbolTable SYMTAB = new SymbolTable();
+    CrossReference XREF = new CrossReference();
+    ArrayList<LitTuple> LITTAB = new ArrayList<>();
+    ArrayList<Integer> POOLTAB = new ArrayList<>(List.of(0));   // first LITTAB index of each pool
+    Map<String, Integer> poolIndex = new HashMap<>();         // literal -> (L,n) in the open pool
+    Diagnostics diag = new Diagnostics();
+
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne asm = new AssemblerPassOne();
+        String mode = "";
+        for (String arg : args) {
+            if (arg.equals("-nodump")) asm.dumpText = false;
+            else if (arg.equals("-quiet")) asm.echo = false;
+            else if (arg.startsWith("-isa=")) ISA = arg.substring(5);
+            else mode = arg;
+        }
+        initializeTables();
+
+        if (mode.equals("-mmap"))
+            asm.pass1Mapped("input.txt");
+        else if (mode.equals("-parallel"))
+            ParallelPassOne.pass1Parallel(asm, "input.txt", Runtime.getRuntime().availableProcessors());
+        else
+            asm.pass1("input.txt");
+
+        asm.diag.report(System.err, "input.txt", asm.SYMTAB);
+    }
+
+    static void initializeTables() throws Exception {
+        InstructionSet isa = InstructionSet.load(ISA);
+        MOT = isa.mot;
+        REGTAB = Collections.unmodifiableMap(isa.registers);
+    }
+
+    // Intermediate code goes to output_pass1.ic, output_pass1.txt is a text dump for debugging.
+    // With icQueue set the binary records go to an in-memory Pass II instead.
+    // Output file names start with outPrefix, echo prints the IC and tables on the console.
+    boolean dumpText = true, writeFiles = true, echo = true;
+    String outPrefix = "";
+    BlockingQueue<ByteBuffer> icQueue;
+    ICTextWriter outIC;     // null when neither dumping nor echoing
+    BinaryIC outBin;
+
+    void openOutputs() throws IOException {
+        if (dumpText || echo)
+            outIC = new ICTextWriter(dumpText ? outPrefix + "output_pass1.txt" : null, echo);
+        outBin = icQueue != null ? new BinaryIC(icQueue) : new BinaryIC(outPrefix + "output_pass1.ic");
+    }
+
+    void closeOutputs() throws IOException {
+        if (outIC != null) outIC.close();
+        outIC = null;
+        outBin.close();
+    }
+
+    // Write the intermediate code of the line just processed
+    void emit(SourceLine line) throws IOException {
+        if (outIC != null) outIC.write(line);
+        outBin.write(line);
+    }
+
+    void pass1(String filename) throws Exception {
+        BufferedReader br = new BufferedReader(new FileReader(filename));
+        openOutputs();
+
+        String line;
+        int lineNo = 0;
+        if (echo) System.out.println("=== INTERMEDIATE CODE ===");
+
+        while ((line = br.readLine()) != null)
+            pass1Line(line, ++lineNo);
+
+        br.close();
+        closeOutputs();
+        writeTables();
+    }
+
+    // Tokenize and process one line of source text
+    void pass1Line(String line, int lineNo) throws IOException {
+        pass1Line(line, lineNo, line, false);
+    }
+
+    // Process text read from source line lineNo. Text expanded from that line (a macro call) has
+    // its errors reported at the start of the line, other text at the bad token.
+    void pass1Line(String text, int lineNo, String source, boolean expanded) throws IOException {
+        String[] tokens = SourceScanner.split(text);
+        if (tokens.length == 0) return;
+
+        current.lineNo = lineNo;
+        if (processLine(tokens, tokens.length)) emit(current);
+        else if (current.error != 0)
+            diag.add(lineNo, column(source, expanded ? 0 : current.errorToken), current.error);
+    }
+
+    // Pass I over a memory-mapped source file, tokens are read straight from the byte buffer
+    void pass1Mapped(String filename) throws Exception {
+        openOutputs();
+
+        if (echo) System.out.println("=== INTERMEDIATE CODE ===");
+
+        try (SourceScanner sc = new SourceScanner(Paths.get(filename))) {
+            String[] tokens = new String[8];
+            while (sc.nextLine()) {
+                int n = sc.tokenCount();
+                if (n == 0) continue;
+                if (n > tokens.length) tokens = new String[n];
+                for (int i = 0; i < n; i++)
+                    tokens[i] = sc.token(i);
+
+                current.lineNo = sc.lineNo;
+                if (processLine(tokens, n)) emit(current);
+                else if (current.error != 0) diag.add(sc.lineNo, sc.column(current.errorToken), current.error);
+            }
+        }
+
+        closeOutputs();
+        writeTables();
+    }
+
+    // Value of a DC/START constant such as 5, '5' or ='5'
+    static int constant(String tok) {
+        int from = 0, to = tok.length();
+        if (from < to && tok.charAt(from) == '=') from++;
+        if (from < to && tok.charAt(from) == '\'') from++;
+        if (to > from && tok.charAt(to - 1) == '\'') to--;
+        return Integer.parseInt(tok.substring(from, to));
+    }
+
+    SourceLine current = new SourceLine();
+
+    // Process one tokenized source line into current, false if it has no intermediate code
+    boolean processLine(String[] tokens, int n) {
+        SourceLine line = current;
+        line.set(tokens, n);
+        analyse(line);
+        line.lc = line.origin >= 0 ? line.origin : lc;
+        bind(line);
+        lc = line.lc + line.length;
+        return line.t != null;
+    }
+
+    // Find the mnemonic and the words the line allocates, uses no table but MOT.
+    // A bad line is left without a mnemonic and its error noted in line.error.
+    static void analyse(SourceLine line) {
+        String[] tokens = line.tokens;
+        line.index = 0;
+        line.length = 0;
+        line.origin = -1;
+        line.base = null;
+        line.error = 0;
+
+        Tuple t = MOT.get(tokens[0]);
+
+        // First token is a label when it is not a mnemonic
+        if (t == null) {
+            line.index = 1;
+            t = line.count > 1 ? MOT.get(tokens[1]) : null;
+            if (t == null && line.count > 1) fail(line, Diagnostics.UNKNOWN_MNEMONIC, 1);
+        }
+        line.t = t;
+        if (t == null) return;
+
+        switch (t.kind) {
+            case AD:
+                if (t.role == Role.START && operandValue(line))
+                    line.origin = line.value;
+                else if ((t.role == Role.ENTRY || t.role == Role.EXTRN) && line.index + 1 >= line.count)
+                    fail(line, Diagnostics.MISSING_OPERAND, line.index);
+                else if (t.role == Role.EQU && line.index == 0)
+                    fail(line, Diagnostics.MISSING_OPERAND, 0);
+                else if ((t.role == Role.ORIGIN || t.role == Role.EQU) && expression(line) && t.role == Role.ORIGIN && line.base == null)
+                    line.origin = line.value;
+                break;
+            case IS:
+                line.length = t.length;
+                break;
+            case DL:
+                if (!operandValue(line)) break;
+                if (t.role == Role.DS) {
+                    if (line.value < 0) fail(line, Diagnostics.BAD_CONSTANT, line.index + 1);
+                    else line.length = line.value;
+                } else {
+                    line.length = t.length;
+                }
+                break;
+        }
+    }
+
+    // Read the constant after the mnemonic into line.value
+    static boolean operandValue(SourceLine line) {
+        int i = line.index + 1;
+        if (i >= line.count) {
+            fail(line, Diagnostics.MISSING_OPERAND, line.index);
+            return false;
+        }
+        try {
+            line.value = constant(line.tokens[i]);
+            return true;
+        } catch (NumberFormatException e) {
+            fail(line, Diagnostics.BAD_CONSTANT, i);
+            return false;
+        }
+    }
+
+    // Compile the operand of ORIGIN/EQU, SYMBOL, SYMBOL+n, SYMBOL-n or n, into line.base and
+    // line.value. Blanks inside the expression are allowed, its tokens are joined back together.
+    static boolean expression(SourceLine line) {
+        int i = line.index + 1;
+        line.value = 0;
+        if (i >= line.count) {
+            fail(line, Diagnostics.MISSING_OPERAND, line.index);
+            return false;
+        }
+        String expr = line.tokens[i];
+        for (int k = i + 1; k < line.count; k++) expr += line.tokens[k];
+
+        int op = Math.max(expr.lastIndexOf('+'), expr.lastIndexOf('-'));
+        String base = op > 0 ? expr.substring(0, op) : expr;
+        try {
+            if (op > 0) line.value = Integer.parseInt(expr.substring(op + 1)) * (expr.charAt(op) == '-' ? -1 : 1);
+            if (Character.isDigit(base.charAt(0)) || base.charAt(0) == '-') line.value += Integer.parseInt(base);
+            else line.base = base;
+            return true;
+        } catch (NumberFormatException e) {
+            fail(line, Diagnostics.BAD_CONSTANT, i);
+            return false;
+        }
+    }
+
+    static void fail(SourceLine line, int kind, int token) {
+        line.error = kind;
+        line.errorToken = token;
+        line.t = null;
+    }
+
+    // 1-based column of a token of a line split as SourceScanner splits it
+    static int column(String text, int token) {
+        int i = 0, n = text.length();
+        while (i < n && SourceScanner.separator(text.charAt(i))) i++;
+        for (int k = 0; k < token; k++) {
+            while (i < n && !SourceScanner.separator(text.charAt(i))) i++;
+            while (i < n && SourceScanner.separator(text.charAt(i))) i++;
+        }
+        return i + 1;
+    }
+
+    // Enter the line's labels, symbols and literals into SYMTAB and LITTAB at line.lc
+    void bind(SourceLine line) {
+        String[] tokens = line.tokens;
+        Tuple t = line.t;
+        boolean equ = t != null && t.kind == MClass.AD && t.role == Role.EQU;
+        boolean org = t != null && t.kind == MClass.AD && t.role == Role.ORIGIN;
+        // A label on ORIGIN names the address before lc moves, whatever the operand
+        if (line.index == 1 && !equ) {
+            String label = tokens[0];
+            SYMTAB.define(label, org ? lc : line.lc);
+        }
+
+        if (t == null) return;
+
+        switch (t.kind) {
+            case AD:
+                // ORIGIN moves lc and EQU defines its label, both to a symbol defined earlier plus a constant
+                if (t.role == Role.ORIGIN || t.role == Role.EQU) {
+                    boolean abs = true;
+                    if (line.base != null) {
+                        int id = SYMTAB.ref(line.base);
+                        XREF.add(id, line.lineNo);
+                        if (SYMTAB.address[id] == SymbolTable.UNDEFINED) {
+                            fail(line, Diagnostics.UNDEFINED_IN_EXPRESSION, line.index + 1);
+                            line.lc = lc;
+                            if (equ) SYMTAB.ref(tokens[0]);
+                            break;
+                        }
+                        line.value += SYMTAB.address[id];
+                        abs = SYMTAB.absolute[id];
+                    }
+                    if (equ) SYMTAB.define(tokens[0], line.value, abs);
+                    else line.lc = line.value;
+                }
+                // LTORG and END place the open literal pool right here
+                if (t.role == Role.LTORG || t.role == Role.END) {
+                    lc = line.lc;
+                    line.length = assignLiteralAddresses();
+                }
+                // EXTRN symbols come from other modules, ENTRY symbols are offered to them
+                if (t.role == Role.EXTRN || t.role == Role.ENTRY) {
+                    for (int i = line.index + 1; i < line.count; i++) {
+                        int id = SYMTAB.ref(tokens[i]);
+                        if (t.role == Role.EXTRN) SYMTAB.declareExtern(id);
+                        else SYMTAB.entries.add(id);
+                    }
+                }
+                break;
+            case IS:
+                line.opCount = 0;
+                for (int i = line.index + 1; i < line.count; i++)
+                    getOperand(line, tokens[i]);
+                break;
+            case DL:
+                String symbol = tokens[0];
+                SYMTAB.set(symbol, line.lc);
+                break;
+        }
+    }
+
+    // Intermediate code for a bound line, null if the line has no mnemonic
+    static String format(SourceLine line) {
+        Tuple t = line.t;
+        if (t == null) return null;
+
+        switch (t.kind) {
+            // AD - Assembler Directive
+            case AD:
+                if (t.role == Role.START) return "(AD," + t.opcode + ") (C," + line.origin + ")";
+                if (t.role == Role.ORIGIN || t.role == Role.EQU) return "(AD," + t.opcode + ") (C," + line.value + ")";
+                return "(AD," + t.opcode + ")";
+
+            // IS - Imperative Statement
+            case IS:
+                StringBuilder res = new StringBuilder();
+                res.append(line.lc).append(" (").append(t.mclass).append(",").append(t.opcode).append(") ");
+                for (int i = 0; i < line.opCount; i++) {
+                    if (line.opKind[i] == 'R')
+                        res.append(line.opVal[i]).append(" ");
+                    else
+                        res.append("(").append(line.opKind[i]).append(",").append(line.opVal[i]).append(") ");
+                }
+                return res.toString();
+
+            // DL - Declarative Statement
+            default:
+                return line.lc + " (" + t.mclass + "," + t.opcode + ") (C," + line.tokens[line.index + 1] + ")";
+        }
+    }
+
+    void writeTables() throws IOException {
+        if (!writeFiles) return;
+
+        PrintWriter outSym = new PrintWriter(new FileWriter(outPrefix + "symtab.txt"));
+        PrintWriter outLit = new PrintWriter(new FileWriter(outPrefix + "littab.txt"));
+        PrintWriter outPool = new PrintWriter(new FileWriter(outPrefix + "pooltab.txt"));
+        PrintWriter outLink = new PrintWriter(new FileWriter(outPrefix + "linktab.txt"));
+        PrintWriter outXref = new PrintWriter(new BufferedWriter(new FileWriter(outPrefix + "xref.txt")));
+
+        // Print symbol table
+        if (echo) System.out.println("\n=== SYMBOL TABLE ===");
+        for (int id = 0; id < SYMTAB.size(); id++) {
+            String row = SYMTAB.names.get(id) + "\t" + SYMTAB.addressText(id);
+            if (echo) System.out.println(row);
+            outSym.println(row);
+        }
+
+        // Print literal table
+        if (echo) System.out.println("\n=== LITERAL TABLE ===");
+        for (LitTuple l : LITTAB) {
+            if (echo) System.out.println(l.literal + "\t" + l.address);
+            outLit.println(l.literal + "\t" + l.address);
+        }
+
+        // Print pool table, skipping the empty pool left open after the last LTORG/END
+        if (echo) System.out.println("\n=== POOL TABLE ===");
+        for (int i = 0; i < POOLTAB.size(); i++) {
+            int start = POOLTAB.get(i);
+            if (start == LITTAB.size()) break;
+            if (echo) System.out.println("#" + (i + 1) + "\t" + (start + 1));
+            outPool.println("#" + (i + 1) + "\t" + (start + 1));
+        }
+
+        // Print link table, only for modules that declare EXTRN or ENTRY or have absolute symbols
+        List<Integer> absolutes = new ArrayList<>();
+        for (int id = 0; id < SYMTAB.size(); id++)
+            if (SYMTAB.absolute[id] && SYMTAB.address[id] != SymbolTable.UNDEFINED) absolutes.add(id);
+        if (echo && SYMTAB.externs.size() + SYMTAB.entries.size() + absolutes.size() > 0)
+            System.out.println("\n=== LINK TABLE ===");
+        for (int id : SYMTAB.externs) {
+            if (echo) System.out.println("EXTRN\t" + SYMTAB.names.get(id));
+            outLink.println("EXTRN\t" + SYMTAB.names.get(id));
+        }
+        for (int id : SYMTAB.entries) {
+            if (echo) System.out.println("ENTRY\t" + SYMTAB.names.get(id));
+            outLink.println("ENTRY\t" + SYMTAB.names.get(id));
+        }
+        for (int id : absolutes) {
+            if (echo) System.out.println("ABS\t" + SYMTAB.names.get(id));
+            outLink.println("ABS\t" + SYMTAB.names.get(id));
+        }
+
+        outSym.close();
+        outLit.close();
+        outPool.close();
+        outLink.close();
+
+        // Cross reference, file only: symbol, address and the lines referring to it
+        for (int id = 0; id < SYMTAB.size(); id++) {
+            StringBuilder row = new StringBuilder(SYMTAB.names.get(id)).append('\t').append(SYMTAB.addressText(id)).append('\t');
+            int[] lines = XREF.lines(id);
+            for (int i = 0; i < lines.length; i++)
+                row.append(i > 0 ? " " : "").append(lines[i]);
+            outXref.println(row);
+        }
+        outXref.close();
+
+        // Binary snapshot of the symbol table, for readers that map it instead of parsing symtab.txt
+        Assembler_PassTwo.writeSymbolSnapshot(outPrefix + "symtab.bin", SYMTAB.names, SYMTAB.address);
+    }
+
+    // Symbol addresses by id, -1 for symbols never defined
+    int[] symbolAddresses() {
+        return Arrays.copyOf(SYMTAB.address, SYMTAB.size());
+    }
+
+    // Literal addresses by id, -1 for literals whose pool was never placed
+    int[] literalAddresses() {
+        int[] a = new int[LITTAB.size()];
+        for (int i = 0; i < a.length; i++) {
+            String s = LITTAB.get(i).address;
+            a[i] = s.equals("-") ? -1 : Integer.parseInt(s);
+        }
+        return a;
+    }
+
+    // Record one operand of an IS line as a register, (L,n) or (S,n)
+    void getOperand(SourceLine line, String tok) {
+        int i = line.opCount++;
+        if (i == line.opKind.length) {
+            line.opKind = Arrays.copyOf(line.opKind, i * 2);
+            line.opVal = Arrays.copyOf(line.opVal, i * 2);
+        }
 
-    Tuple(String m, String c, String o, String l) {
-        mnemonic = m;
-        mclass = c;
-        opcode = o;
-        length = Integer.parseInt(l);
+        if (REGTAB.containsKey(tok)) {
+            line.opKind[i] = 'R';
+            line.opVal[i] = Integer.parseInt(REGTAB.get(tok));
+        } else if (tok.startsWith("=")) {
+            // Same literal in the same pool is allocated once
+            Integer id = poolIndex.get(tok);
+            if (id == null) {
+                LITTAB.add(new LitTuple(tok, "-"));
+                id = LITTAB.size();
+                poolIndex.put(tok, id);
+            }
+            line.opKind[i] = 'L';
+            line.opVal[i] = id;
+        } else {
+            // (S,n) is the symbol's own row in symtab.txt
+            line.opKind[i] = 'S';
+            line.opVal[i] = SYMTAB.ref(tok) + 1;
+            XREF.add(line.opVal[i] - 1, line.lineNo);
+        }
+    }
+
+    // Place the literals of the open pool at lc and start a new pool, returns the pool size
+    int assignLiteralAddresses() {
+        int start = POOLTAB.get(POOLTAB.size() - 1);
+        for (int i = start; i < LITTAB.size(); i++)
+            LITTAB.get(i).address = String.valueOf(lc++);
+
+        POOLTAB.add(LITTAB.size());
+        poolIndex.clear();
+        return LITTAB.size() - start;
     }
 }
 
-class SymTuple {
-    String symbol, address;
-    SymTuple(String s, String a) {
-        symbol = s;
-        address = a;
+// Pass I over chunks of the source in parallel. Workers analyse their lines and lay them out
+// relative to the chunk start, a prefix sum over chunk sizes then fixes up the absolute lc
+// and the symbol and literal tables are built in source order, so the output is identical
+// to the sequential pass1.
+class ParallelPassOne {
+
+    // Lines of one chunk, laid out relative to the chunk start
+    static class Chunk {
+        long start, end;
+        List<SourceLine> lines = new ArrayList<>();
+        int tail;           // lc advance after the last reset (or from the chunk start)
+        int reset = -1;     // value of the last START/ORIGIN in the chunk, -1 if none,
+                            // 0 for an ORIGIN to a symbol, which is only resolved when binding
+        int base;           // absolute lc at the chunk start
+        int lineCount;      // source lines in the chunk, blank ones included
+        int lineOffset;     // source lines before the chunk
+        Diagnostics diag = new Diagnostics();
+        StringBuilder ic = new StringBuilder();
+        ByteBuffer records;
+    }
+
+    static void pass1Parallel(AssemblerPassOne asm, String filename, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            List<Chunk> chunks = split(channel, threads * 4);
+
+            // 1. Analyse every chunk independently
+            runAll(pool, chunks, c -> analyseChunk(channel, c));
+
+            // 2. Prefix sum over chunk sizes gives the lc at each chunk start,
+            //    the same over line counts turns chunk line numbers into file line numbers
+            int lc = asm.lc, lines = 0;
+            for (Chunk c : chunks) {
+                c.base = lc;
+                lc = (c.reset >= 0 ? c.reset : lc) + c.tail;
+                c.lineOffset = lines;
+                lines += c.lineCount;
+            }
+
+            // 3. Fix up absolute lc and line number of every line
+            runAll(pool, chunks, ParallelPassOne::placeChunk);
+
+            // 4. Symbols and literals in source order. Literal pools are sized and ORIGINs to a
+            //    symbol resolved only here, so every later line is shifted by the pools placed since
+            //    the last START and by where the last ORIGIN actually went. Errors found while
+            //    binding are merged with the chunk's own in line order.
+            int shift = 0;
+            for (Chunk c : chunks) {
+                int d = 0;
+                for (SourceLine line : c.lines) {
+                    for (; d < c.diag.size && c.diag.line[d] + c.lineOffset <= line.lineNo; d++)
+                        asm.diag.add(c.diag.line[d] + c.lineOffset, c.diag.column[d], c.diag.kind[d]);
+
+                    if (line.origin >= 0) shift = 0;
+                    line.lc += shift;
+                    int placed = line.lc;
+                    asm.bind(line);
+                    if (line.error == Diagnostics.UNDEFINED_IN_EXPRESSION)
+                        asm.diag.add(line.lineNo, line.baseColumn, line.error);
+                    shift += line.lc - placed + pooled(line);
+                    asm.lc = line.lc + line.length;
+                }
+                for (; d < c.diag.size; d++)
+                    asm.diag.add(c.diag.line[d] + c.lineOffset, c.diag.column[d], c.diag.kind[d]);
+            }
+            asm.lc = lc + shift;
+
+            // 5. Format intermediate code
+            runAll(pool, chunks, ParallelPassOne::formatChunk);
+
+            asm.openOutputs();
+            if (asm.echo) System.out.println("=== INTERMEDIATE CODE ===");
+            for (Chunk c : chunks) {
+                if (asm.outIC != null) asm.outIC.write(c.ic);
+                asm.outBin.write(c.records);
+            }
+            asm.closeOutputs();
+            asm.writeTables();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Cut the file into about n chunks ending on line boundaries
+    static List<Chunk> split(FileChannel channel, int n) throws IOException {
+        long size = channel.size();
+        long step = Math.min(Math.max(size / n, 1), SourceScanner.WINDOW);
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + step, size);
+            while (end < size) {
+                one.clear();
+                channel.read(one, end - 1);
+                if (one.get(0) == '\n') break;
+                end++;
+            }
+            Chunk c = new Chunk();
+            c.start = start;
+            c.end = end;
+            chunks.add(c);
+            start = end;
+        }
+        return chunks;
+    }
+
+    static void analyseChunk(FileChannel channel, Chunk c) throws IOException {
+        int rel = 0;
+        try (SourceScanner sc = new SourceScanner(channel, c.start, c.end)) {
+            while (sc.nextLine()) {
+                int n = sc.tokenCount();
+                if (n == 0) continue;
+
+                SourceLine line = new SourceLine();
+                String[] tokens = new String[n];
+                for (int i = 0; i < n; i++)
+                    tokens[i] = sc.token(i);
+                line.set(tokens, n);
+                line.lineNo = sc.lineNo;
+                AssemblerPassOne.analyse(line);
+                if (line.error != 0) c.diag.add(sc.lineNo, sc.column(line.errorToken), line.error);
+                if (line.base != null) line.baseColumn = sc.column(line.index + 1);
+
+                if (line.origin >= 0 || movable(line)) {
+                    c.reset = Math.max(line.origin, 0);
+                    rel = 0;
+                }
+                line.relLc = rel;
+                rel += line.length;
+                c.lines.add(line);
+            }
+            c.lineCount = sc.lineNo;
+        }
+        c.tail = rel;
+    }
+
+    static void placeChunk(Chunk c) {
+        int segment = c.base;
+        for (SourceLine line : c.lines) {
+            if (line.origin >= 0) segment = line.origin;
+            else if (movable(line)) segment = 0;
+            line.lc = segment + line.relLc;
+            line.lineNo += c.lineOffset;
+        }
+    }
+
+    // ORIGIN to a symbol, the lines after it are laid out from 0 until binding knows the address
+    static boolean movable(SourceLine line) {
+        Tuple t = line.t;
+        return t != null && t.kind == MClass.AD && t.role == Role.ORIGIN && line.base != null;
+    }
+
+    // Words a bound LTORG/END line added for its literal pool
+    static int pooled(SourceLine line) {
+        Tuple t = line.t;
+        if (t == null || t.kind != MClass.AD) return 0;
+        return t.role == Role.LTORG || t.role == Role.END ? line.length : 0;
+    }
+
+    static void formatChunk(Chunk c) {
+        int records = 0;
+        for (SourceLine line : c.lines) {
+            String output = AssemblerPassOne.format(line);
+            if (output == null) continue;
+            c.ic.append(output).append(System.lineSeparator());
+            records++;
+        }
+
+        c.records = ByteBuffer.allocate(records * BinaryIC.RECORD);
+        for (SourceLine line : c.lines)
+            if (line.t != null) BinaryIC.encode(line, c.records);
+        c.records.flip();
+    }
+
+    interface ChunkTask {
+        void run(Chunk c) throws Exception;
+    }
+
+    static void runAll(ExecutorService pool, List<Chunk> chunks, ChunkTask task) throws Exception {
+        List<Future<?>> results = new ArrayList<>();
+        for (Chunk c : chunks)
+            results.add(pool.submit(() -> {
+                task.run(c);
+                return null;
+            }));
+        for (Future<?> f : results)
+            f.get();
     }
 }
 
-class LitTuple {
-    String literal, address;
-    LitTuple(String l, String a) {
-        literal = l;
-        address = a;
+// Both passes in one process: Pass I streams binary intermediate code through a bounded queue
+// to Pass II running on its own thread and hands over SYMTAB when it finishes, nothing goes to disk
+// between the passes.
+class AssemblerPipeline {
+
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne.initializeTables();
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("output_pass2.txt")));
+        assemble("input.txt", out);
+        out.close();
+    }
+
+    static void assemble(String filename, PrintWriter out) throws Exception {
+        BlockingQueue<ByteBuffer> queue = new ArrayBlockingQueue<>(16);
+        CompletableFuture<int[]> symbols = new CompletableFuture<>(), literals = new CompletableFuture<>();
+        ExecutorService passTwo = Executors.newSingleThreadExecutor();
+
+        AssemblerPassOne asm = new AssemblerPassOne();
+        asm.icQueue = queue;
+        asm.dumpText = false;
+        asm.writeFiles = false;
+        asm.echo = false;       // nothing of Pass I is shown, as none of its tables are written
+        try {
+            Future<?> done = passTwo.submit(() -> {
+                Assembler_PassTwo.pass2(queue, symbols, literals, out);
+                return null;
+            });
+
+            try {
+                asm.pass1Mapped(filename);
+                asm.diag.report(System.err, filename, asm.SYMTAB);
+                symbols.complete(asm.symbolAddresses());
+                literals.complete(asm.literalAddresses());
+            } catch (Exception e) {
+                symbols.completeExceptionally(e);
+                literals.completeExceptionally(e);
+                done.cancel(true);
+                throw e;
+            }
+            done.get();
+        } finally {
+            passTwo.shutdown();
+        }
     }
 }
 
-public class AssemblerPassOne {
-    static int lc = 0;
-    static Map<String, Tuple> MOT = new HashMap<>();
-    static Map<String, SymTuple> SYMTAB = new LinkedHashMap<>();
-    static ArrayList<LitTuple> LITTAB = new ArrayList<>();
-    static Map<String, String> REGTAB = new HashMap<>();
+// One-pass assembler: reads the source once and emits object code immediately. A reference to a
+// symbol not yet defined is chained on that symbol (the chain runs through the code slots) and the
+// slots are backpatched when a label or DC/DS defines it. Literals are chained the same way until
+// LTORG/END places their pool. Output matches AssemblerPipeline.
+class AssemblerOnePass {
+    AssemblerPassOne asm = new AssemblerPassOne();
+    int count;
+    ByteBuffer records = ByteBuffer.allocate(BinaryIC.RECORD * 1024);
+    int[] addr = new int[1024];    // resolved address of each code slot
+    int[] lineOf = new int[1024];  // source line of each code slot
+    int[] next = new int[1024];    // next slot waiting for the same symbol, 0 ends the chain
+    int[] chain = new int[64];     // per symbol id: last slot + 1 waiting for it, 0 if none
+    int[] litChain = new int[64];  // the same per literal id
 
     public static void main(String[] args) throws Exception {
-        initializeTables();
-        pass1("input.txt");
+        AssemblerPassOne.initializeTables();
+        AssemblerOnePass one = new AssemblerOnePass();
+        one.assemble("input.txt");
+        one.asm.diag.report(System.err, "input.txt", one.asm.SYMTAB);
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("output_pass2.txt")));
+        one.write(out);
+        out.close();
     }
 
-    static void initializeTables() throws Exception {
-        BufferedReader br = new BufferedReader(new FileReader("mot.txt"));
-        String s;
-        while ((s = br.readLine()) != null) {
-            String[] arr = s.trim().split(" ");
-            if (arr.length < 4) continue;
-            MOT.put(arr[0], new Tuple(arr[0], arr[1], arr[2], arr[3]));
+    void assemble(String filename) throws IOException {
+        try (SourceScanner sc = new SourceScanner(Paths.get(filename))) {
+            String[] tokens = new String[8];
+            SourceLine line = new SourceLine();
+            while (sc.nextLine()) {
+                int n = sc.tokenCount();
+                if (n == 0) continue;
+                if (n > tokens.length) tokens = new String[n];
+                for (int i = 0; i < n; i++)
+                    tokens[i] = sc.token(i);
+
+                line.set(tokens, n);
+                line.lineNo = sc.lineNo;
+                AssemblerPassOne.analyse(line);
+                line.lc = line.origin >= 0 ? line.origin : asm.lc;
+                asm.bind(line);
+                asm.lc = line.lc + line.length;
+                if (line.error != 0) asm.diag.add(sc.lineNo, sc.column(line.errorToken), line.error);
+
+                if (chain.length < asm.SYMTAB.size())
+                    chain = Arrays.copyOf(chain, Math.max(chain.length * 2, asm.SYMTAB.size()));
+                if (litChain.length < asm.LITTAB.size())
+                    litChain = Arrays.copyOf(litChain, Math.max(litChain.length * 2, asm.LITTAB.size()));
+
+                if (line.t != null) add(line);
+                if (line.index == 1 || (line.t != null && line.t.kind == MClass.DL))
+                    backpatch(asm.SYMTAB.ref(tokens[0]));
+                if (ParallelPassOne.pooled(line) > 0)
+                    for (int id = asm.LITTAB.size() - line.length; id < asm.LITTAB.size(); id++)
+                        backpatchLiteral(id);
+            }
         }
-        br.close();
+    }
 
-        REGTAB.put("AREG", "1");
-        REGTAB.put("BREG", "2");
-        REGTAB.put("CREG", "3");
-        REGTAB.put("DREG", "4");
+    // Emit the code slot of a line, resolving its symbol now or chaining it for later
+    void add(SourceLine line) {
+        if (count == addr.length) {
+            addr = Arrays.copyOf(addr, count * 2);
+            next = Arrays.copyOf(next, count * 2);
+            lineOf = Arrays.copyOf(lineOf, count * 2);
+            ByteBuffer bigger = ByteBuffer.allocate(records.capacity() * 2);
+            records.flip();
+            bigger.put(records);
+            records = bigger;
+        }
+        int at = records.position();
+        BinaryIC.encode(line, records);
+
+        addr[count] = 0;
+        lineOf[count] = line.lineNo;
+        if (records.get(at + 7) == 'S') {
+            int id = records.getInt(at + 8) - 1;
+            addr[count] = asm.SYMTAB.address[id];
+            if (addr[count] == SymbolTable.UNDEFINED) {
+                next[count] = chain[id];
+                chain[id] = count + 1;
+            }
+        } else if (records.get(at + 7) == 'L') {
+            // The literal's pool is still open, it gets an address at the next LTORG/END
+            int id = records.getInt(at + 8) - 1;
+            addr[count] = -1;
+            next[count] = litChain[id];
+            litChain[id] = count + 1;
+        }
+        count++;
     }
 
-    static void pass1(String filename) throws Exception {
-        BufferedReader br = new BufferedReader(new FileReader(filename));
+    // Fill every slot waiting for the symbol once it has an address
+    void backpatch(int id) {
+        int a = asm.SYMTAB.address[id];
+        if (a == SymbolTable.UNDEFINED) return;
+        for (int slot = chain[id]; slot != 0; slot = next[slot - 1])
+            addr[slot - 1] = a;
+        chain[id] = 0;
+    }
 
-        // Output files
-        PrintWriter outIC = new PrintWriter(new FileWriter("output_pass1.txt"));
-        PrintWriter outSym = new PrintWriter(new FileWriter("symtab.txt"));
-        PrintWriter outLit = new PrintWriter(new FileWriter("littab.txt"));
+    void backpatchLiteral(int id) {
+        int a = Integer.parseInt(asm.LITTAB.get(id).address);
+        for (int slot = litChain[id]; slot != 0; slot = next[slot - 1])
+            addr[slot - 1] = a;
+        litChain[id] = 0;
+    }
 
-        String line;
-        System.out.println("=== INTERMEDIATE CODE ===");
+    void write(PrintWriter out) {
+        for (int i = 0; i < count; i++) {
+            int at = i * BinaryIC.RECORD;
+            int lc = records.getInt(at);
+            int mclass = records.get(at + 4);
+            int opcode = records.get(at + 5);
+            int reg = records.get(at + 6);
+            char kind = (char) records.get(at + 7);
+            int id = records.getInt(at + 8);
+            out.println(Assembler_PassTwo.describe(lc, mclass, opcode, reg, kind, id) + "      ->      " + objectCode(i));
+        }
+    }
 
-        while ((line = br.readLine()) != null) {
-            if (line.trim().isEmpty()) continue;
-            String[] tokens = line.trim().split("[ ,]+");
-            if (tokens.length == 0) continue;
+    // Object code of a slot, with its symbol or literal resolved
+    String objectCode(int slot) {
+        int at = slot * BinaryIC.RECORD;
+        char kind = (char) records.get(at + 7);
+        String memAddr = "0";
+        if (kind == 'S' || kind == 'L') memAddr = addr[slot] < 0 ? "-" : String.valueOf(addr[slot]);
+        return Assembler_PassTwo.objectCode(records.get(at + 4), records.get(at + 5), records.get(at + 6), memAddr);
+    }
+}
+
+// Assembler listing: line number, LC, source text and object code of every source line, taken
+// from the code slots of a one-pass assembly. Pages are formatted on worker threads into their
+// own buffers and the whole listing goes out in one gathering write.
+class AssemblerListing {
+    static final int PAGE_LINES = 56;
 
-            String output = "";
-            int index = 0;
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne.initializeTables();
+        String source = args.length > 0 ? args[0] : "input.txt";
+        String listing = args.length > 1 ? args[1] : "listing.txt";
+        write(source, listing, Runtime.getRuntime().availableProcessors());
+    }
 
-            // Check if first token is a label
-            if (!MOT.containsKey(tokens[0])) {
-                String label = tokens[0];
-                SYMTAB.putIfAbsent(label, new SymTuple(label, String.valueOf(lc)));
-                index = 1;
+    static void write(String source, String listing, int threads) throws Exception {
+        AssemblerOnePass one = new AssemblerOnePass();
+        one.assemble(source);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(Paths.get(source), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(listing), CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer text = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+
+            // Start of every source line, numbered as SourceScanner numbers them
+            int[] start = new int[1024];
+            int lines = 0, p = 0;
+            while (p < text.limit()) {
+                if (lines + 1 == start.length) start = Arrays.copyOf(start, lines * 2);
+                start[lines++] = p;
+                while (p < text.limit() && text.get(p) != '\n') p++;
+                p++;
+            }
+            start[lines] = p;
+
+            // Code slot and first error of every line
+            int[] slot = new int[lines + 1], error = new int[lines + 1];
+            Arrays.fill(slot, -1);
+            for (int i = 0; i < one.count; i++)
+                slot[one.lineOf[i]] = i;
+            Diagnostics diag = one.asm.diag;
+            for (int i = diag.size - 1; i >= 0; i--)
+                error[diag.line[i]] = diag.kind[i];
+
+            List<Future<ByteBuffer>> pages = new ArrayList<>();
+            int pageCount = (lines + PAGE_LINES - 1) / PAGE_LINES;
+            for (int page = 0; page < pageCount; page++) {
+                int first = page * PAGE_LINES + 1, last = Math.min(lines, first + PAGE_LINES - 1);
+                int[] starts = start;
+                int number = page + 1;
+                pages.add(pool.submit(() -> page(one, text, starts, slot, error, source, number, first, last)));
             }
 
-            if (index >= tokens.length) continue;
+            ByteBuffer[] buffers = new ByteBuffer[pages.size() + 1];
+            long total = 0;
+            for (int i = 0; i < pages.size(); i++) {
+                buffers[i] = pages.get(i).get();
+                total += buffers[i].remaining();
+            }
+            int errors = diag.count(one.asm.SYMTAB);
+            buffers[pages.size()] = ByteBuffer.wrap((System.lineSeparator() + lines + " lines, " + errors
+                    + (errors == 1 ? " error" : " errors") + System.lineSeparator()).getBytes());
+            total += buffers[pages.size()].remaining();
+            for (long written = 0; written < total; )
+                written += out.write(buffers);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            String op = tokens[index];
-            Tuple t = MOT.get(op);
-            if (t == null) continue;
+    // One page, lines first..last (1-based)
+    static ByteBuffer page(AssemblerOnePass one, ByteBuffer text, int[] start, int[] slot, int[] error,
+                           String source, int number, int first, int last) {
+        String newline = System.lineSeparator();
+        StringBuilder sb = new StringBuilder(PAGE_LINES * 80);
+        if (number > 1) sb.append('\f');
+        sb.append("ASSEMBLER LISTING  ").append(source).append("  PAGE ").append(number).append(newline).append(newline);
+        sb.append("  LINE     LC  SOURCE                                    OBJECT CODE").append(newline);
+
+        for (int n = first; n <= last; n++) {
+            int s = slot[n];
+            pad(sb, String.valueOf(n), 6);
+            sb.append("  ");
+            int mclass = s < 0 ? 0 : one.records.get(s * BinaryIC.RECORD + 4);
+            pad(sb, mclass > 1 ? String.valueOf(one.records.getInt(s * BinaryIC.RECORD)) : "", 5);
+            sb.append("  ");
+
+            int from = start[n - 1], to = start[n] - 1;
+            if (to > from && text.get(to - 1) == '\r') to--;
+            int width = 0;
+            for (int p = from; p < to; p++, width++)
+                sb.append((char) (text.get(p) & 0xFF));
+            if (mclass == 2) {
+                for (; width < 40; width++) sb.append(' ');
+                sb.append("  ").append(one.objectCode(s));
+            }
+            sb.append(newline);
+            if (error[n] != 0) sb.append("        *** ").append(Diagnostics.MESSAGE[error[n]]).append(newline);
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
 
-            // AD - Assembler Directive
-            if (t.mclass.equals("AD")) {
-                if (op.equals("START")) {
-                    lc = Integer.parseInt(tokens[index + 1]);
-                    output = "(AD,01) (C," + lc + ")";
-                } else if (op.equals("END")) {
-                    output = "(AD,02)";
-                    assignLiteralAddresses();
+    static void pad(StringBuilder sb, String s, int width) {
+        for (int i = s.length(); i < width; i++) sb.append(' ');
+        sb.append(s);
+    }
+}
+
+// Macro processor fused with Pass I. The macro definitions are collected into MNT and MDT, then
+// every line coming out of the macro expansion loop goes straight to the Pass I tokenizer, so
+// neither the macro passes' files nor an expanded source are written. Diagnostics give the line
+// of input.txt, for expanded lines the line of the macro call.
+class MacroAssembler {
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne asm = new AssemblerPassOne();
+        for (String arg : args) {
+            if (arg.equals("-nodump")) asm.dumpText = false;
+            else if (arg.equals("-quiet")) asm.echo = false;
+            else if (arg.startsWith("-isa=")) AssemblerPassOne.ISA = arg.substring(5);
+        }
+        AssemblerPassOne.initializeTables();
+
+        assemble(asm, "input.txt");
+        asm.diag.report(System.err, "input.txt", asm.SYMTAB);
+    }
+
+    static void assemble(AssemblerPassOne asm, String filename) throws Exception {
+        // Lines left after the definitions, with the source line each was read from
+        List<String> lines = new ArrayList<>(), source = new ArrayList<>();
+        List<Integer> lineNos = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
+            MacroProcessor_PassOne.define(br, (s, lineNo, raw) -> {
+                lines.add(s);
+                source.add(raw);
+                lineNos.add(lineNo);
+            });
+        }
+
+        asm.openOutputs();
+        if (asm.echo) System.out.println("=== INTERMEDIATE CODE ===");
+
+        // A call's body lines are assembled after it is expanded, all at the line of the call
+        List<String> body = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            body.clear();
+            boolean call = MacroProcessor_PassTwo.expand(lines.get(i), MacroProcessor_PassOne.MDT,
+                    MacroProcessor_PassOne.MNT, body::add);
+            for (String text : body)
+                asm.pass1Line(text, lineNos.get(i), source.get(i), call);
+        }
+
+        asm.closeOutputs();
+        asm.writeTables();
+    }
+}
+
+// Assembles every .asm file of a directory on a fixed thread pool. Each file gets its own
+// AssemblerPassOne, MOT and REGTAB are built once and shared read-only by all workers.
+// Given an output file, the workers also write an object module each and the modules are linked.
+class AssemblerBatch {
+
+    public static void main(String[] args) throws Exception {
+        String srcDir = args.length > 0 ? args[0] : "src";
+        String outDir = args.length > 1 ? args[1] : "build";
+        String linked = args.length > 2 ? args[2] : null;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        AssemblerPassOne.initializeTables();
+        List<String> modules = assembleAll(Paths.get(srcDir), Paths.get(outDir), threads, linked != null);
+        if (linked != null && modules != null) {
+            Assembler_PassTwo.link(modules, Paths.get(outDir).resolve(linked).toString());
+            System.out.println("Linked " + modules.size() + " modules into " + Paths.get(outDir).resolve(linked));
+        }
+    }
+
+    // Returns the object modules written, null if any file failed
+    static List<String> assembleAll(Path srcDir, Path outDir, int threads, boolean objects) throws Exception {
+        Files.createDirectories(outDir);
+        List<Path> sources = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(srcDir, "*.asm")) {
+            for (Path p : dir) sources.add(p);
+        }
+        Collections.sort(sources);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<AssemblerPassOne>> results = new ArrayList<>();
+        for (Path source : sources) {
+            results.add(pool.submit(() -> {
+                String name = source.getFileName().toString();
+                AssemblerPassOne asm = new AssemblerPassOne();
+                asm.echo = false;
+                asm.outPrefix = outDir.resolve(name.substring(0, name.length() - 4)) + "_";
+                asm.pass1Mapped(source.toString());
+                if (objects && asm.diag.count(asm.SYMTAB) == 0) {
+                    String p = asm.outPrefix;
+                    Assembler_PassTwo.writeObject(p + "output_pass1.ic", p + "symtab.txt", p + "littab.txt",
+                            p + "linktab.txt", p + "output.obj", AssemblerPassOne.MOT.code(Role.DC));
                 }
+                return asm;
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        List<String> modules = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            try {
+                AssemblerPassOne asm = results.get(i).get();
+                if (asm.diag.count(asm.SYMTAB) > 0) {
+                    failed++;
+                    asm.diag.report(System.out, sources.get(i).toString(), asm.SYMTAB);
+                }
+                modules.add(asm.outPrefix + "output.obj");
+            } catch (ExecutionException e) {
+                failed++;
+                System.out.println("FAILED " + sources.get(i) + ": " + e.getCause());
             }
+        }
+        System.out.println("Assembled " + (sources.size() - failed) + " of " + sources.size() + " files into " + outDir);
+        return failed == 0 ? modules : null;
+    }
+}
 
-            // IS - Imperative Statement
-            else if (t.mclass.equals("IS")) {
-                output = lc + " (" + t.mclass + "," + t.opcode + ") ";
-                output += getOperand(Arrays.copyOfRange(tokens, index + 1, tokens.length));
-                lc += t.length;
+// Incremental reassembly. The previous run's per-line lc, table sizes, symbol definitions and
+// intermediate code are kept; after an edit the tables are rolled back to the first changed line
+// and only the lines from there on are processed again.
+class IncrementalPassOne {
+    AssemblerPassOne asm = new AssemblerPassOne();
+    List<String> lines = new ArrayList<>();
+
+    // Per source line, state before the line and what the line produced
+    int[] lcBefore = new int[0], symCount = new int[0], litCount = new int[0], poolCount = new int[0];
+    int[] diagCount = new int[0], externCount = new int[0], entryCount = new int[0];
+    int[] defId = new int[0];       // symbol defined by the line, -1 if none
+    int[] defPrev = new int[0];     // its address before the line
+    boolean[] defPrevAbsolute = new boolean[0];
+    String[] ic = new String[0];
+    ByteBuffer records = ByteBuffer.allocate(0);    // one record slot per line
+    boolean[] hasRecord = new boolean[0];
+
+    IncrementalPassOne() {
+        asm.echo = false;
+    }
+
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne.initializeTables();
+        IncrementalPassOne inc = new IncrementalPassOne();
+        System.out.println("Processed " + inc.update(Files.readAllLines(Paths.get("input.txt"))) + " lines");
+
+        // Reassemble edited copies of the source given on the command line
+        for (String edited : args) {
+            List<String> source = Files.readAllLines(Paths.get(edited));
+            System.out.println(edited + ": reprocessed " + inc.update(source) + " of " + source.size() + " lines");
+        }
+        inc.write();
+        inc.asm.diag.report(System.err, args.length > 0 ? args[args.length - 1] : "input.txt", inc.asm.SYMTAB);
+    }
+
+    // Bring the tables up to date with the new source, returns the number of lines processed
+    int update(List<String> source) {
+        int k = 0;
+        while (k < lines.size() && k < source.size() && lines.get(k).equals(source.get(k))) k++;
+        if (k == lines.size() && k == source.size()) return 0;
+
+        rollback(k);
+        ensureCapacity(source.size());
+        for (int j = k; j < source.size(); j++)
+            process(j, source.get(j));
+
+        lines = new ArrayList<>(source);
+        return source.size() - k;
+    }
+
+    // Undo everything lines k.. did to the tables, leaving the state before line k
+    void rollback(int k) {
+        if (k >= lines.size()) return;
+
+        SymbolTable symtab = asm.SYMTAB;
+        for (int j = lines.size() - 1; j >= k; j--)
+            if (defId[j] >= 0 && defId[j] < symCount[k]) {
+                symtab.address[defId[j]] = defPrev[j];
+                symtab.absolute[defId[j]] = defPrevAbsolute[j];
             }
+        symtab.truncate(symCount[k]);
+        asm.XREF.truncate(symCount[k], k + 1);
+        symtab.truncateExterns(externCount[k]);
+        while (symtab.entries.size() > entryCount[k]) symtab.entries.remove(symtab.entries.size() - 1);
+
+        while (asm.LITTAB.size() > litCount[k]) asm.LITTAB.remove(asm.LITTAB.size() - 1);
+        while (asm.POOLTAB.size() > poolCount[k]) asm.POOLTAB.remove(asm.POOLTAB.size() - 1);
+
+        // Literals of the pool still open at line k lose their addresses again
+        asm.poolIndex.clear();
+        for (int i = asm.POOLTAB.get(asm.POOLTAB.size() - 1); i < asm.LITTAB.size(); i++) {
+            LitTuple l = asm.LITTAB.get(i);
+            l.address = "-";
+            asm.poolIndex.put(l.literal, i + 1);
+        }
 
-            // DL - Declarative Statement
-            else if (t.mclass.equals("DL")) {
-                String symbol = tokens[0];
-                String constant = tokens[index + 1];
-                output = lc + " (" + t.mclass + "," + t.opcode + ") (C," + constant + ")";
-                SYMTAB.put(symbol, new SymTuple(symbol, String.valueOf(lc)));
+        asm.diag.size = diagCount[k];
+        asm.lc = lcBefore[k];
+    }
+
+    void process(int j, String text) {
+        lcBefore[j] = asm.lc;
+        symCount[j] = asm.SYMTAB.size();
+        litCount[j] = asm.LITTAB.size();
+        poolCount[j] = asm.POOLTAB.size();
+        diagCount[j] = asm.diag.size;
+        externCount[j] = asm.SYMTAB.externs.size();
+        entryCount[j] = asm.SYMTAB.entries.size();
+        defId[j] = -1;
+        ic[j] = null;
+        hasRecord[j] = false;
+
+        String[] tokens = SourceScanner.split(text);
+        if (tokens.length == 0) return;
+
+        Integer before = asm.SYMTAB.ids.get(tokens[0]);
+        int prev = before == null ? SymbolTable.UNDEFINED : asm.SYMTAB.address[before];
+        boolean prevAbsolute = before != null && asm.SYMTAB.absolute[before];
+
+        SourceLine line = asm.current;
+        line.lineNo = j + 1;
+        if (asm.processLine(tokens, tokens.length)) ic[j] = AssemblerPassOne.format(line);
+        else if (line.error != 0) asm.diag.add(j + 1, AssemblerPassOne.column(text, line.errorToken), line.error);
+        if (line.index == 1 || (line.t != null && line.t.kind == MClass.DL)) {
+            defId[j] = asm.SYMTAB.ids.get(tokens[0]);
+            defPrev[j] = prev;
+            defPrevAbsolute[j] = prevAbsolute;
+        }
+        if (ic[j] != null) {
+            BinaryIC.encode(line, records.position(j * BinaryIC.RECORD));
+            hasRecord[j] = true;
+        }
+    }
+
+    void ensureCapacity(int n) {
+        if (n <= ic.length) return;
+        n = Math.max(n, ic.length * 2);
+        lcBefore = Arrays.copyOf(lcBefore, n);
+        symCount = Arrays.copyOf(symCount, n);
+        litCount = Arrays.copyOf(litCount, n);
+        poolCount = Arrays.copyOf(poolCount, n);
+        diagCount = Arrays.copyOf(diagCount, n);
+        externCount = Arrays.copyOf(externCount, n);
+        entryCount = Arrays.copyOf(entryCount, n);
+        defId = Arrays.copyOf(defId, n);
+        defPrev = Arrays.copyOf(defPrev, n);
+        defPrevAbsolute = Arrays.copyOf(defPrevAbsolute, n);
+        ic = Arrays.copyOf(ic, n);
+        hasRecord = Arrays.copyOf(hasRecord, n);
+        ByteBuffer bigger = ByteBuffer.allocate(n * BinaryIC.RECORD);
+        bigger.put(records.clear());
+        records = bigger;
+    }
 
-                if (t.mnemonic.equals("DS"))
-                    lc += Integer.parseInt(constant);
-                else
-                    lc += t.length;
+    // Write the intermediate code and tables of the current source
+    void write() throws IOException {
+        asm.openOutputs();
+        ByteBuffer all = ByteBuffer.allocate(lines.size() * BinaryIC.RECORD);
+        for (int j = 0; j < lines.size(); j++) {
+            if (ic[j] == null) continue;
+            if (asm.outIC != null) {
+                asm.outIC.write(ic[j]);
+                asm.outIC.write(ICTextWriter.NEWLINE);
             }
+            all.put(records.duplicate().position(j * BinaryIC.RECORD).limit((j + 1) * BinaryIC.RECORD));
+        }
+        asm.outBin.write(all.flip());
+        asm.closeOutputs();
+        asm.writeTables();
+    }
+}
 
-            System.out.println(output);
-            outIC.println(output);
+// Throughput benchmark for both passes over generated sources. Every scenario is warmed up first,
+// then each pass is timed per file; lines/second, bytes allocated per line and p50/p99 latency
+// per file are reported. Line counts are given on the command line (default 1K, 100K and 1M).
+class AssemblerBenchmark {
+    static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+
+    // Shape of a generated source
+    static class Scenario {
+        String name;
+        int lines;
+        double labels, literals;    // share of IS lines with a label / a literal operand
+        int maxDs;                  // DS sizes are 1..maxDs
+
+        Scenario(String name, int lines, double labels, double literals, int maxDs) {
+            this.name = name;
+            this.lines = lines;
+            this.labels = labels;
+            this.literals = literals;
+            this.maxDs = maxDs;
         }
+    }
 
-        // Print symbol table
-        System.out.println("\n=== SYMBOL TABLE ===");
-        for (SymTuple s : SYMTAB.values()) {
-            System.out.println(s.symbol + "\t" + s.address);
-            outSym.println(s.symbol + "\t" + s.address);
+    public static void main(String[] args) throws Exception {
+        AssemblerPassOne.initializeTables();
+        int[] sizes = { 1_000, 100_000, 1_000_000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
         }
 
-        // Print literal table
-        System.out.println("\n=== LITERAL TABLE ===");
-        for (LitTuple l : LITTAB) {
-            System.out.println(l.literal + "\t" + l.address);
-            outLit.println(l.literal + "\t" + l.address);
+        Path dir = Files.createTempDirectory("asmbench");
+        try {
+            System.out.println("# p50/p99 are nearest-rank over the measured runs; with fewer than 100 runs p99 is the slowest run");
+            System.out.printf("%-28s %-7s %6s %14s %12s %10s %10s%n",
+                    "scenario", "pass", "runs", "lines/s", "bytes/line", "p50 ms", "p99 ms");
+            for (int lines : sizes) {
+                run(dir, new Scenario("plain", lines, 0.05, 0.05, 1));
+                run(dir, new Scenario("label-heavy", lines, 0.8, 0.05, 1));
+                run(dir, new Scenario("literal-heavy", lines, 0.05, 0.6, 1));
+                run(dir, new Scenario("large-ds", lines, 0.05, 0.05, 1000));
+            }
+        } finally {
+            delete(dir);
         }
+    }
 
-        br.close();
-        outIC.close();
-        outSym.close();
-        outLit.close();
+    // Remove the scratch directory, children before parents
+    static void delete(Path dir) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (java.util.stream.Stream<Path> walk = Files.walk(dir)) {
+            walk.forEach(paths::add);
+        }
+        for (int i = paths.size() - 1; i >= 0; i--) Files.deleteIfExists(paths.get(i));
     }
 
-    static String getOperand(String[] operands) {
-        StringBuilder res = new StringBuilder();
-        for (String tok : operands) {
-            if (REGTAB.containsKey(tok))
-                res.append(REGTAB.get(tok)).append(" ");
-            else if (tok.startsWith("=")) {
-                LITTAB.add(new LitTuple(tok, "-"));
-                res.append("(L,").append(LITTAB.size()).append(") ");
-            } else {
-                SYMTAB.putIfAbsent(tok, new SymTuple(tok, "-"));
-                res.append("(S,").append(SYMTAB.size()).append(") ");
-            }
+    static void run(Path dir, Scenario sc) throws Exception {
+        Path source = dir.resolve(sc.name + "_" + sc.lines + ".asm");
+        generate(source, sc, 42);
+
+        String prefix = dir.resolve(sc.name + "_" + sc.lines + "_").toString();
+        int iterations = Math.max(5, Math.min(50, 5_000_000 / sc.lines));
+        int warmup = Math.max(2, iterations / 5);
+
+        long[] passOne = new long[iterations], passTwo = new long[iterations];
+        long allocOne = 0, allocTwo = 0;
+        long thread = Thread.currentThread().getId();
+
+        for (int i = -warmup; i < iterations; i++) {
+            AssemblerPassOne asm = new AssemblerPassOne();
+            asm.echo = false;
+            asm.dumpText = false;
+            asm.outPrefix = prefix;
+
+            long a0 = THREADS.getThreadAllocatedBytes(thread);
+            long t0 = System.nanoTime();
+            asm.pass1Mapped(source.toString());
+            long t1 = System.nanoTime();
+            long a1 = THREADS.getThreadAllocatedBytes(thread);
+
+            Assembler_PassTwo.readSymbolTable(prefix + "symtab.txt");
+            Assembler_PassTwo.readLiteralTable(prefix + "littab.txt");
+            Assembler_PassTwo.pass2Binary(prefix + "output_pass1.ic", prefix + "output_pass2.txt", false);
+            long t2 = System.nanoTime();
+            long a2 = THREADS.getThreadAllocatedBytes(thread);
+
+            if (i < 0) continue;
+            passOne[i] = t1 - t0;
+            passTwo[i] = t2 - t1;
+            allocOne += a1 - a0;
+            allocTwo += a2 - a1;
         }
-        return res.toString();
+
+        String label = sc.name + " " + sc.lines;
+        report(label, "pass1", sc.lines, passOne, allocOne / iterations);
+        report(label, "pass2", sc.lines, passTwo, allocTwo / iterations);
     }
 
-    static void assignLiteralAddresses() {
-        for (LitTuple l : LITTAB) {
-            if (l.address.equals("-")) {
-                l.address = String.valueOf(lc++);
+    static void report(String label, String pass, int lines, long[] times, long alloc) {
+        long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long t : sorted) total += t;
+        double linesPerSecond = lines * 1e9 * sorted.length / total;
+        System.out.printf("%-28s %-7s %6d %,14.0f %,12.1f %10.2f %10.2f%n", label, pass, sorted.length, linesPerSecond,
+                (double) alloc / lines, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6);
+    }
+
+    static long percentile(long[] sorted, int p) {
+        int i = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+
+    // Write a source of the given shape, every referenced variable is defined by a DS at the end
+    static void generate(Path file, Scenario sc, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        String[] ops = { "ADD", "SUB", "MULT", "MOVER", "MOVEM" };
+        String[] regs = { "AREG", "BREG", "CREG", "DREG" };
+        int vars = Math.max(1, sc.lines / 10);
+
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("START 100\n");
+            for (int i = 0; i < sc.lines - vars - 2; i++) {
+                if (rnd.nextDouble() < sc.labels) out.write("L" + i + " ");
+                out.write(ops[rnd.nextInt(ops.length)] + " " + regs[rnd.nextInt(regs.length)] + ", ");
+                if (rnd.nextDouble() < sc.literals) out.write("='" + rnd.nextInt(100) + "'\n");
+                else out.write("V" + rnd.nextInt(vars) + "\n");
             }
+            for (int v = 0; v < vars; v++)
+                out.write("V" + v + " DS " + (1 + rnd.nextInt(sc.maxDs)) + "\n");
+            out.write("END\n");
         }
     }
 }
@@ -199,6 +2195,10 @@ create mot.txt file
 			START AD 01 0
 			END AD 02 0
 			LTORG AD 03 0
+			ENTRY AD 04 0
+			EXTRN AD 05 0
+			ORIGIN AD 06 0
+			EQU AD 07 0
 			DS DL 01 1
 			DC DL 02 1
 			ADD IS 01 1
@@ -206,12 +2206,43 @@ create mot.txt file
 			MULT IS 03 1
 			MOVER IS 04 1
 			MOVEM IS 05 1
+
+registers are optional REG rows (AREG..DREG = 1..4 when there are none)
+			REG AREG 1
+			REG BREG 2
+
+mot.txt is compiled into mot.txt.cache on the first run and rebuilt when mot.txt changes;
+another instruction set is chosen with  java AssemblerPassOne -isa=variant.txt
 */
 
 /*
-create output_pass1.txt file
+create output_pass1.ic file   (binary intermediate code for Pass II)
+create output_pass1.txt file  (text dump, skipped with -nodump; -quiet stops the console echo)
 create symtab.txt file
 create littab.txt file
+create pooltab.txt file
+create linktab.txt file       (EXTRN, ENTRY and absolute EQU symbols, read when writing object modules)
+create xref.txt file          (symbol, address and every line referring to it)
+create symtab.bin file        (binary symbol table snapshot, mapped by Pass II instead of parsing)
+
+run modes
+			java AssemblerPassOne            (BufferedReader input)
+			java AssemblerPassOne -mmap      (memory-mapped input)
+			java AssemblerPassOne -parallel  (chunked Pass I on all cores)
+			java AssemblerPipeline           (Pass I and Pass II in one process, writes output_pass2.txt)
+			java AssemblerOnePass            (single pass with backpatching, same output_pass2.txt)
+			java AssemblerBatch src build    (every src/*.asm on all cores, outputs build/<name>_*.txt)
+			java AssemblerBatch src build prog.obj  (also an object module per file, linked into build/prog.obj)
+			java IncrementalPassOne a.txt b.txt  (input.txt, then each edited copy reassembled from its first change)
+			java AssemblerBenchmark 1000 100000  (timed Pass I / Pass II on generated sources of each size)
+			java AssemblerListing input.txt listing.txt  (line, LC, source and object code, 56 lines a page)
+			java MacroAssembler            (macro definitions and calls in input.txt expanded straight into Pass I)
+
+ORIGIN and EQU take SYMBOL, SYMBOL+n, SYMBOL-n or n; the symbol must be defined on an earlier line
+			ORIGIN LOOP+50
+			SIZE EQU BACK-2
+A label on an ORIGIN line gets the address before lc moves, for a constant and a symbol alike
+			HERE ORIGIN 300   (HERE is the lc reached so far, not 300)
 */
 
 
@@ -391,13 +2422,13 @@ A partially processed output of Pass I that includes symbolic references and opc
 
 🔹 9. What data structures are used in Pass I?
 
-MOT (HashMap)
+MOT (OpcodeTable, a collision-free hash over the mnemonics built once from mot.txt)
 
-SYMTAB (LinkedHashMap)
+SYMTAB (SymbolTable, dense ids with an address array and a name → id HashMap)
 
-LITTAB (ArrayList)
+LITTAB (ArrayList) with POOLTAB (first literal of each pool) and a hash of the open pool's literals
 
-REGTAB (HashMap)
+REGTAB (Map, AREG..DREG or the REG rows of mot.txt)
 
 🔹 10. Why is two-pass assembly required?
 
@@ -423,7 +2454,9 @@ It means Imperative Statement (IS) with opcode 04, which corresponds to the mnem
 
 🔹 4. How is a literal address assigned?
 
-All literals are assigned addresses after the END directive, sequentially starting from the current LC.
+Literals are collected in the open pool, a literal repeated within a pool gets a single entry.
+LTORG places the open pool sequentially starting from the current LC and opens a new one; END places
+the last pool the same way.
 
 🔹 5. What is the difference between DC and DS?
 Directive	Meaning	Example	Action
@@ -455,7 +2488,8 @@ Example:
 
 🔹 9. Which data structure did you use for MOT and why?
 
-A HashMap — because it allows O(1) lookup time for mnemonics.
+An OpcodeTable — a hash table without collisions built once by initializeTables, so looking up a
+mnemonic is a single probe and one string compare.
 
 🔹 10. How can you extend this program for Pass II?
 
@@ -476,124 +2510,806 @@ The program correctly generated the Symbol Table, Literal Table, and Intermediat
 
 
 
-/*
-Chit No 2 – Assembler Pass II
-Problem Statement: Implement Pass II of a two-pass assembler using the given Intermediate Code
-and Symbol Table to generate Object Code.
-Sample Input:
-Intermediate Code:
-(AD,01)(C,100)
-(IS,04)(1)(S,1)
-(IS,01)(2)(S,2)
-(IS,02)(1)(S,3)
-(AD,02)
-Symbol Table:
-Symbol Address
-A 100
-B 101
-C 102
-*/
+/*
+Chit No 2 – Assembler Pass II
+Problem Statement: Implement Pass II of a two-pass assembler using the given Intermediate Code
+and Symbol Table to generate Object Code.
+Sample Input:
+Intermediate Code:
+(AD,01)(C,100)
+(IS,04)(1)(S,1)
+(IS,01)(2)(S,2)
+(IS,02)(1)(S,3)
+(AD,02)
+Symbol Table:
+Symbol Address
+A 100
+B 101
+C 102
+*/
+
+package A2;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Symbol Table Tuple
+class SymTuple {
+    String symbol, address;
+
+    SymTuple(String s, String a) {
+        symbol = s;
+        address = a;
+    }
+}
+
+// Decoded binary intermediate code records
+class ICRecords {
+    int size;
+    int[] lc = new int[1024], mclass = new int[1024], opcode = new int[1024];
+    int[] reg = new int[1024], kind = new int[1024], id = new int[1024];
+
+    void add(ByteBuffer buf) {
+        if (size == lc.length) grow();
+        lc[size] = buf.getInt();
+        mclass[size] = buf.get();
+        opcode[size] = buf.get();
+        reg[size] = buf.get();
+        kind[size] = buf.get();
+        id[size] = buf.getInt();
+        size++;
+    }
+
+    void grow() {
+        int n = lc.length * 2;
+        lc = Arrays.copyOf(lc, n);
+        mclass = Arrays.copyOf(mclass, n);
+        opcode = Arrays.copyOf(opcode, n);
+        reg = Arrays.copyOf(reg, n);
+        kind = Arrays.copyOf(kind, n);
+        id = Arrays.copyOf(id, n);
+    }
+}
+
+// Object module, the loadable form of an assembled program. Layout, big-endian:
+//   header   magic "OBJ1", origin (lowest address of any word), image size in words, relocation,
+//            export, import and fixup counts
+//   code     one 8-byte word per address from origin: opcode << 40 | reg << 32 | address for IS,
+//            the constant for DC and literals, 0 for DS
+//   reloc    image offsets of every word whose address was taken from SYMTAB or LITTAB, except
+//            symbols EQU made absolute
+//   fixups   image offset and import index of every word referring to an EXTRN symbol
+//   exports  address, flags, name length and name bytes of every ENTRY symbol (flag GLOBAL), or
+//            of every defined label when the program declares no ENTRY (local, for the loader);
+//            flag ABSOLUTE marks a constant the load bias is not added to
+//   imports  name length and name bytes of every EXTRN symbol
+// A loader maps the file and copies the code section straight into memory, adding its load
+// bias to the words listed in the relocation table.
+class ObjectModule {
+    static final int MAGIC = 0x4F424A31;   // "OBJ1"
+    static final long ADDRESS = 0xFFFFFFFFL;
+    static final int GLOBAL = 1;           // export flag, the symbol was declared ENTRY
+    static final int ABSOLUTE = 2;         // export flag, a constant rather than an address
+
+    int origin, size;
+    long[] image = new long[1024];
+    int relocCount;
+    int[] reloc = new int[1024];
+    List<String> exportNames = new ArrayList<>();
+    int[] exportAddr = new int[64], exportFlags = new int[64];
+    List<String> importNames = new ArrayList<>();
+    int fixupCount;
+    int[] fixupOffset = new int[64], fixupImport = new int[64];
+
+    static long word(int opcode, int reg, int address) {
+        return (long) opcode << 40 | (long) reg << 32 | (address & ADDRESS);
+    }
+
+    // Make room for the words up to (excluding) address
+    void reserve(int address) {
+        int n = address - origin;
+        if (n <= size) return;
+        if (n > image.length) image = Arrays.copyOf(image, Math.max(n, image.length * 2));
+        size = n;
+    }
+
+    void put(int address, long word) {
+        reserve(address + 1);
+        image[address - origin] = word;
+    }
+
+    void relocate(int address) {
+        if (relocCount == reloc.length) reloc = Arrays.copyOf(reloc, relocCount * 2);
+        reloc[relocCount++] = address - origin;
+    }
+
+    void fixup(int address, int imported) {
+        if (fixupCount == fixupOffset.length) {
+            fixupOffset = Arrays.copyOf(fixupOffset, fixupCount * 2);
+            fixupImport = Arrays.copyOf(fixupImport, fixupCount * 2);
+        }
+        fixupOffset[fixupCount] = address - origin;
+        fixupImport[fixupCount++] = imported;
+    }
+
+    // Replace the address field of a word
+    void patch(int offset, int address) {
+        image[offset] = image[offset] & ~ADDRESS | (address & ADDRESS);
+    }
+
+    void export(String name, int address, int flags) {
+        int i = exportNames.size();
+        if (i == exportAddr.length) {
+            exportAddr = Arrays.copyOf(exportAddr, i * 2);
+            exportFlags = Arrays.copyOf(exportFlags, i * 2);
+        }
+        exportNames.add(name);
+        exportAddr[i] = address;
+        exportFlags[i] = flags;
+    }
+
+    void write(String filename) throws IOException {
+        List<byte[]> exports = new ArrayList<>(), imports = new ArrayList<>();
+        int namesLength = 0;
+        for (String name : exportNames) {
+            exports.add(name.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            namesLength += 7 + exports.get(exports.size() - 1).length;
+        }
+        for (String name : importNames) {
+            imports.add(name.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+            namesLength += 2 + imports.get(imports.size() - 1).length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(28 + size * 8 + relocCount * 4 + fixupCount * 8 + namesLength);
+        buf.putInt(MAGIC).putInt(origin).putInt(size).putInt(relocCount)
+           .putInt(exports.size()).putInt(imports.size()).putInt(fixupCount);
+        buf.asLongBuffer().put(image, 0, size);
+        buf.position(buf.position() + size * 8);
+        buf.asIntBuffer().put(reloc, 0, relocCount);
+        buf.position(buf.position() + relocCount * 4);
+        for (int i = 0; i < fixupCount; i++)
+            buf.putInt(fixupOffset[i]).putInt(fixupImport[i]);
+        for (int i = 0; i < exports.size(); i++)
+            buf.putInt(exportAddr[i]).put((byte) exportFlags[i]).putShort((short) exports.get(i).length).put(exports.get(i));
+        for (byte[] name : imports)
+            buf.putShort((short) name.length).put(name);
+        buf.flip();
+
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    // Map an object module, the code section is bulk-copied without decoding individual words
+    static ObjectModule read(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != MAGIC) throw new IOException(filename + " is not an object module");
+
+            ObjectModule m = new ObjectModule();
+            m.origin = buf.getInt();
+            m.size = buf.getInt();
+            m.relocCount = buf.getInt();
+            int exports = buf.getInt(), imports = buf.getInt();
+            m.fixupCount = buf.getInt();
+
+            m.image = new long[m.size];
+            buf.asLongBuffer().get(m.image);
+            buf.position(buf.position() + m.size * 8);
+            m.reloc = new int[m.relocCount];
+            buf.asIntBuffer().get(m.reloc);
+            buf.position(buf.position() + m.relocCount * 4);
+            m.fixupOffset = new int[m.fixupCount];
+            m.fixupImport = new int[m.fixupCount];
+            for (int i = 0; i < m.fixupCount; i++) {
+                m.fixupOffset[i] = buf.getInt();
+                m.fixupImport[i] = buf.getInt();
+            }
+
+            m.exportAddr = new int[Math.max(exports, 1)];
+            m.exportFlags = new int[Math.max(exports, 1)];
+            for (int i = 0; i < exports; i++) {
+                int address = buf.getInt();
+                int flags = buf.get();
+                m.export(name(buf), address, flags);
+            }
+            for (int i = 0; i < imports; i++)
+                m.importNames.add(name(buf));
+            return m;
+        }
+    }
+
+    static String name(ByteBuffer buf) {
+        byte[] b = new byte[buf.getShort()];
+        buf.get(b);
+        return new String(b, java.nio.charset.StandardCharsets.UTF_8);
+    }
+}
+
+// Links object modules into one. Modules are laid out one after another from the origin of the
+// first, every ENTRY export goes into one global index (labels a module exports without ENTRY
+// stay local to it), then a single sweep over the modules copies each image, adds the module's
+// load bias to its relocated words and patches EXTRN references with the exporting module's address.
+// Absolute exports keep their value and the words patched with them are not relocated.
+class Linker {
+
+    static ObjectModule link(List<ObjectModule> modules) throws IOException {
+        ObjectModule out = new ObjectModule();
+        int[] place = new int[modules.size()];
+        int at = modules.isEmpty() ? 0 : modules.get(0).origin;
+        out.origin = at;
+        for (int i = 0; i < modules.size(); i++) {
+            place[i] = at;
+            at += modules.get(i).size;
+        }
+        out.reserve(at);
+
+        Map<String, Integer> global = new HashMap<>();     // name -> index of its export in out
+        for (int i = 0; i < modules.size(); i++) {
+            ObjectModule m = modules.get(i);
+            int bias = place[i] - m.origin;
+            for (int e = 0; e < m.exportNames.size(); e++) {
+                if ((m.exportFlags[e] & ObjectModule.GLOBAL) == 0) continue;
+                String name = m.exportNames.get(e);
+                if (global.putIfAbsent(name, out.exportNames.size()) != null)
+                    throw new IOException("duplicate symbol " + name);
+                boolean abs = (m.exportFlags[e] & ObjectModule.ABSOLUTE) != 0;
+                out.export(name, m.exportAddr[e] + (abs ? 0 : bias), m.exportFlags[e]);
+            }
+        }
+
+        for (int i = 0; i < modules.size(); i++) {
+            ObjectModule m = modules.get(i);
+            int bias = place[i] - m.origin;
+            int base = place[i] - out.origin;
+            System.arraycopy(m.image, 0, out.image, base, m.size);
+
+            for (int r = 0; r < m.relocCount; r++) {
+                int offset = base + m.reloc[r];
+                out.patch(offset, (int) (out.image[offset] & ObjectModule.ADDRESS) + bias);
+                out.relocate(out.origin + offset);
+            }
+            for (int f = 0; f < m.fixupCount; f++) {
+                String name = m.importNames.get(m.fixupImport[f]);
+                Integer e = global.get(name);
+                if (e == null) throw new IOException("unresolved external " + name);
+                int offset = base + m.fixupOffset[f];
+                out.patch(offset, out.exportAddr[e]);
+                if ((out.exportFlags[e] & ObjectModule.ABSOLUTE) == 0) out.relocate(out.origin + offset);
+            }
+        }
+        return out;
+    }
+}
+
+// Binary symbol table snapshot written once by Pass I. Layout, big-endian:
+//   header   magic "SYM1", symbol count n, string pool size
+//   address  n ints, address of each symbol by id, -1 if undefined
+//   sorted   n ints, symbol ids in name order
+//   offset   n + 1 ints, start of each name (in name order) in the pool
+//   pool     the names, UTF-8, sorted by unsigned byte order
+// Readers map the file and use it in place: (S,n) is one array read, a name is a binary search
+// over the pool, nothing is parsed or allocated per symbol.
+class SymbolSnapshot {
+    static final int MAGIC = 0x53594D31;   // "SYM1"
+
+    ByteBuffer buf;
+    int count, addressAt, sortedAt, offsetAt, poolAt;
+
+    static void write(String filename, List<String> names, int[] address) throws IOException {
+        int n = names.size();
+        byte[][] bytes = new byte[n][];
+        Integer[] order = new Integer[n];
+        int pool = 0;
+        for (int id = 0; id < n; id++) {
+            bytes[id] = names.get(id).getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            order[id] = id;
+            pool += bytes[id].length;
+        }
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(bytes[a], bytes[b]));
+
+        ByteBuffer buf = ByteBuffer.allocate(12 + 4 * (3 * n + 1) + pool);
+        buf.putInt(MAGIC).putInt(n).putInt(pool);
+        buf.asIntBuffer().put(address, 0, n);
+        buf.position(buf.position() + 4 * n);
+        for (int id : order) buf.putInt(id);
+        int offset = 0;
+        for (int id : order) {
+            buf.putInt(offset);
+            offset += bytes[id].length;
+        }
+        buf.putInt(offset);
+        for (int id : order) buf.put(bytes[id]);
+        buf.flip();
+
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+    }
+
+    static SymbolSnapshot map(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            SymbolSnapshot s = new SymbolSnapshot();
+            s.buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (s.buf.getInt(0) != MAGIC) throw new IOException(filename + " is not a symbol table snapshot");
+            s.count = s.buf.getInt(4);
+            s.addressAt = 12;
+            s.sortedAt = s.addressAt + 4 * s.count;
+            s.offsetAt = s.sortedAt + 4 * s.count;
+            s.poolAt = s.offsetAt + 4 * (s.count + 1);
+            return s;
+        }
+    }
 
-package A2;
+    // Address of the symbol with the given id, -1 if undefined
+    int address(int id) {
+        return buf.getInt(addressAt + 4 * id);
+    }
 
-import java.io.*;
-import java.util.*;
+    // Every address by id, one bulk copy
+    int[] addresses() {
+        int[] a = new int[count];
+        buf.duplicate().position(addressAt).asIntBuffer().get(a);
+        return a;
+    }
 
-// Symbol Table Tuple
-class SymTuple {
-    String symbol, address;
+    // Id of the symbol with this name, -1 if there is none
+    int find(String name) {
+        byte[] key = name.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(key, mid);
+            if (c == 0) return buf.getInt(sortedAt + 4 * mid);
+            if (c < 0) hi = mid - 1;
+            else lo = mid + 1;
+        }
+        return -1;
+    }
 
-    SymTuple(String s, String a) {
-        symbol = s;
-        address = a;
+    // Key against the k-th name in sorted order, unsigned byte order
+    int compare(byte[] key, int k) {
+        int from = poolAt + buf.getInt(offsetAt + 4 * k), to = poolAt + buf.getInt(offsetAt + 4 * k + 4);
+        int n = Math.min(key.length, to - from);
+        for (int i = 0; i < n; i++) {
+            int c = (key[i] & 0xFF) - (buf.get(from + i) & 0xFF);
+            if (c != 0) return c;
+        }
+        return key.length - (to - from);
     }
 }
 
 public class Assembler_PassTwo {
 
     static ArrayList<SymTuple> symtable;
+    static int[] symAddress;    // symtable frozen by id - 1, -1 if undefined; read-only once loaded
+    static int[] litAddress = new int[0];   // literal table by id - 1, -1 if never placed
     static PrintWriter out_pass2;
 
     // Read Symbol Table
     static void readSymbolTable() throws Exception {
-        symtable = new ArrayList<>();
-        BufferedReader br = new BufferedReader(new FileReader("A2/symtable.txt"));
+        readSymbolTable("A2/symtable.txt");
+    }
+
+    public static void readSymbolTable(String filename) throws Exception {
+        symtable = loadSymbols(filename);
+        symAddress = new int[symtable.size()];
+        for (int i = 0; i < symAddress.length; i++) {
+            String a = symtable.get(i).address;
+            symAddress[i] = a.equals("-") ? -1 : Integer.parseInt(a);
+        }
+    }
+
+    static ArrayList<SymTuple> loadSymbols(String filename) throws IOException {
+        ArrayList<SymTuple> symbols = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new FileReader(filename));
         String line;
         while ((line = br.readLine()) != null) {
             String[] tokens = line.split("\t");
-            symtable.add(new SymTuple(tokens[0], tokens[1]));
+            symbols.add(new SymTuple(tokens[0], tokens[1]));
         }
         br.close();
+        return symbols;
+    }
+
+    // Load the symbols from the binary snapshot Pass I writes next to symtab.txt
+    public static void readSymbolSnapshot(String filename) throws Exception {
+        symAddress = SymbolSnapshot.map(filename).addresses();
+    }
+
+    public static void writeSymbolSnapshot(String filename, List<String> names, int[] address) throws IOException {
+        SymbolSnapshot.write(filename, names, address);
+    }
+
+    // Read Literal Table written by Pass I, literals are numbered by their row
+    public static void readLiteralTable(String filename) throws Exception {
+        List<String> rows = Files.readAllLines(Paths.get(filename));
+        litAddress = new int[rows.size()];
+        for (int i = 0; i < litAddress.length; i++) {
+            String a = rows.get(i).substring(rows.get(i).indexOf('\t') + 1);
+            litAddress[i] = a.equals("-") ? -1 : Integer.parseInt(a);
+        }
     }
 
-    // Get symbol address from S,index
-    static String getSymbolAddress(String sIndex) {
-        String[] parts = sIndex.split(",");
-        int index = Integer.parseInt(parts[1]);
-        return symtable.get(index - 1).address;
+    // Address text of the n-th entry of a frozen table, - if it has none
+    static String address(int[] table, int n) {
+        return n < 1 || n > table.length || table[n - 1] < 0 ? "-" : String.valueOf(table[n - 1]);
     }
 
-    // Pass II: Generate object code
+    // Pass II: Generate object code, each line decoded as pass2Parallel decodes it
     static void pass2() throws Exception {
         BufferedReader br = new BufferedReader(new FileReader("A2/output_pass1.txt"));
         out_pass2 = new PrintWriter(new FileWriter("A2/output_pass2.txt"), true);
 
+        StringBuilder sb = new StringBuilder();
         String line;
         while ((line = br.readLine()) != null) {
-            String objCode = "";
-
-            // Split each part between parentheses
-            List<String> tokens = new ArrayList<>();
-            int i = 0;
-            while (i < line.length()) {
-                if (line.charAt(i) == '(') {
-                    int j = line.indexOf(')', i);
-                    if (j > i) {
-                        tokens.add(line.substring(i + 1, j));
-                        i = j;
-                    }
-                }
-                i++;
+            ByteBuffer ic = ByteBuffer.wrap(line.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+            sb.setLength(0);
+            if (!translateLine(ic, 0, ic.limit(), symAddress, litAddress, sb)) continue;
+
+            System.out.println(sb);
+            out_pass2.println(sb);
+        }
+
+        br.close();
+        out_pass2.close();
+    }
+
+    // Pass II over the text intermediate code on several threads. Workers share the frozen
+    // symAddress and litAddress arrays without locking, each translates a disjoint range of lines into its own
+    // buffer and the buffers are written in file order with one gathering write.
+    public static void pass2Parallel(String icFile, String outFile, int threads) throws Exception {
+        int[] symbols = symAddress, literals = litAddress;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try (FileChannel in = FileChannel.open(Paths.get(icFile), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(Paths.get(outFile), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer ic = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+
+            // Ranges end on line boundaries
+            List<Future<ByteBuffer>> parts = new ArrayList<>();
+            int n = threads * 4, start = 0;
+            for (int i = 1; i <= n && start < ic.limit(); i++) {
+                int end = Math.max((int) ((long) ic.limit() * i / n), start + 1);
+                while (end < ic.limit() && ic.get(end - 1) != '\n') end++;
+                int from = start, to = end;
+                parts.add(pool.submit(() -> translate(ic, from, to, symbols, literals)));
+                start = end;
             }
 
-            if (tokens.size() == 0) continue;
+            ByteBuffer[] buffers = new ByteBuffer[parts.size()];
+            long total = 0;
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = parts.get(i).get();
+                total += buffers[i].remaining();
+            }
+            for (long written = 0; written < total; )
+                written += out.write(buffers);
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            String first = tokens.get(0); // e.g., AD,01 or IS,04
+    static final String ARROW = "      ->      ";
+
+    // Object code for the lines in [from, to) of the text intermediate code, same output as pass2
+    static ByteBuffer translate(ByteBuffer ic, int from, int to, int[] symbols, int[] literals) {
+        StringBuilder sb = new StringBuilder((to - from) * 2);
+        String newline = System.lineSeparator();
+        for (int i = from; i < to; ) {
+            int end = i;
+            while (end < to && ic.get(end) != '\n') end++;
+            int next = end + 1;
+            if (end > i && ic.get(end - 1) == '\r') end--;
+            if (translateLine(ic, i, end, symbols, literals, sb)) sb.append(newline);
+            i = next;
+        }
+        return ByteBuffer.wrap(sb.toString().getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+    }
 
-            if (first.startsWith("AD")) {
-                objCode = "----";
-            } else if (first.startsWith("IS")) {
-                String[] isParts = first.split(",");
-                int opcode = Integer.parseInt(isParts[1]);
-                String opCodeStr = String.format("%02d", opcode);
+    // One line such as (IS,04)(1)(S,1), the register may also stand bare as in 200 (IS,04) 1 (S,1).
+    // Nothing is appended for a line without tokens.
+    static boolean translateLine(ByteBuffer ic, int from, int to, int[] symbols, int[] literals, StringBuilder sb) {
+        int p = from;
+        while (p < to && ic.get(p) != '(') p++;
+        if (p == to) return false;
+
+        for (int i = from; i < to; i++)
+            sb.append((char) (ic.get(i) & 0xFF));
+        sb.append(ARROW);
+        if (p + 3 >= to || ic.get(p + 1) != 'I' || ic.get(p + 2) != 'S') {
+            sb.append("----");
+            return true;
+        }
 
-                if (tokens.size() > 1) {
-                    int reg = Integer.parseInt(tokens.get(1)); // Register number
-                    String memAddr = "0";
+        int opcode = number(ic, p + 4, to);
+        if (opcode < 10) sb.append('0');
+        sb.append(opcode).append(' ');
 
-                    if (tokens.size() > 2 && tokens.get(2).startsWith("S,")) {
-                        memAddr = getSymbolAddress(tokens.get(2));
-                    }
+        // Register, then the memory operand
+        p = skip(ic, p + 4, to);
+        while (p < to && (ic.get(p) == ' ' || ic.get(p) == ')')) p++;
+        if (p == to) {
+            sb.append("0 0");
+            return true;
+        }
+        int reg = 0;
+        if (ic.get(p) == '(' && p + 1 < to && Character.isDigit(ic.get(p + 1))) {
+            reg = number(ic, p + 1, to);
+            p = skip(ic, p + 1, to) + 1;
+        } else if (Character.isDigit(ic.get(p))) {
+            reg = number(ic, p, to);
+            p = skip(ic, p, to);
+        }
+        sb.append(reg).append(' ');
+
+        while (p < to && ic.get(p) != '(') p++;
+        if (p + 2 < to && (ic.get(p + 1) == 'S' || ic.get(p + 1) == 'L') && ic.get(p + 2) == ',') {
+            int[] table = ic.get(p + 1) == 'S' ? symbols : literals;
+            int n = number(ic, p + 3, to);
+            if (n < 1 || n > table.length || table[n - 1] < 0) sb.append('-');
+            else sb.append(table[n - 1]);
+        } else {
+            sb.append('0');
+        }
+        return true;
+    }
+
+    // Decimal number starting at p
+    static int number(ByteBuffer ic, int p, int to) {
+        int n = 0;
+        for (; p < to && ic.get(p) >= '0' && ic.get(p) <= '9'; p++)
+            n = n * 10 + ic.get(p) - '0';
+        return n;
+    }
+
+    // Position after the digits starting at p
+    static int skip(ByteBuffer ic, int p, int to) {
+        while (p < to && ic.get(p) >= '0' && ic.get(p) <= '9') p++;
+        return p;
+    }
 
-                    objCode = opCodeStr + " " + reg + " " + memAddr;
+    // Binary intermediate code written by Pass I, see BinaryIC in AssemblerPassOne
+    static final int IC_MAGIC = 0x49433031;
+    static final int IC_RECORD = 12;
+    static final String[] IC_CLASS = { "", "AD", "IS", "DL" };
+
+    // Pass II over the binary intermediate code, records are decoded in place from the mapped file
+    static void pass2Binary() throws Exception {
+        pass2Binary("A2/output_pass1.ic", "A2/output_pass2.txt", true);
+    }
+
+    public static void pass2Binary(String icFile, String outFile, boolean echo) throws Exception {
+        out_pass2 = new PrintWriter(new BufferedWriter(new FileWriter(outFile)));
+
+        try (FileChannel ch = FileChannel.open(Paths.get(icFile), StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != IC_MAGIC) throw new IOException(icFile + " is not binary intermediate code");
+
+            while (buf.remaining() >= IC_RECORD) {
+                int lc = buf.getInt();
+                int mclass = buf.get();
+                int opcode = buf.get();
+                int reg = buf.get();
+                char kind = (char) buf.get();
+                int id = buf.getInt();
+
+                String memAddr = kind == 'S' ? address(symAddress, id) : kind == 'L' ? address(litAddress, id) : "0";
+                String line = describe(lc, mclass, opcode, reg, kind, id);
+                String objCode = objectCode(mclass, opcode, reg, memAddr);
+                if (echo) System.out.println(line + "      ->      " + objCode);
+                out_pass2.println(line + "      ->      " + objCode);
+            }
+        }
+
+        out_pass2.close();
+    }
+
+    // Object module from the binary intermediate code, symbol, literal and link tables of one
+    // program. Only reads its arguments, so modules can be written on several threads at once.
+    // dcCode is the opcode DC has in the instruction set the program was assembled for.
+    public static void writeObject(String icFile, String symFile, String litFile, String linkFile, String objFile,
+                                   int dcCode) throws Exception {
+        List<SymTuple> symtable = loadSymbols(symFile);
+        Map<String, Integer> imports = new HashMap<>();
+        List<String> entries = new ArrayList<>();
+        Set<String> absolute = new HashSet<>();
+        if (new File(linkFile).exists()) {
+            for (String line : Files.readAllLines(Paths.get(linkFile))) {
+                String[] tokens = line.split("\t");
+                if (tokens[0].equals("EXTRN")) imports.putIfAbsent(tokens[1], imports.size());
+                else if (tokens[0].equals("ABS")) absolute.add(tokens[1]);
+                else entries.add(tokens[1]);
+            }
+        }
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> literalAddr = new ArrayList<>();
+        try (BufferedReader br = new BufferedReader(new FileReader(litFile))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] tokens = line.split("\t");
+                literals.add(tokens[0]);
+                literalAddr.add(tokens[1].equals("-") ? -1 : Integer.parseInt(tokens[1]));
+            }
+        }
+
+        ObjectModule obj = new ObjectModule();
+        obj.importNames.addAll(Collections.nCopies(imports.size(), null));
+        for (Map.Entry<String, Integer> e : imports.entrySet())
+            obj.importNames.set(e.getValue(), e.getKey());
+
+        try (FileChannel ch = FileChannel.open(Paths.get(icFile), StandardOpenOption.READ)) {
+            ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt() != IC_MAGIC) throw new IOException(icFile + " is not binary intermediate code");
+
+            // The image starts at the lowest address anything lands on, ORIGIN may go below START.
+            // With nothing placed it starts where the first directive (START) left lc.
+            int start = Integer.MAX_VALUE, low = Integer.MAX_VALUE;
+            for (int p = buf.position(); p + IC_RECORD <= buf.limit(); p += IC_RECORD) {
+                if (buf.get(p + 4) != 1) low = Math.min(low, buf.getInt(p));
+                else if (start == Integer.MAX_VALUE) start = buf.getInt(p);
+            }
+            for (int a : literalAddr)
+                if (a >= 0) low = Math.min(low, a);
+            obj.origin = low != Integer.MAX_VALUE ? low : start != Integer.MAX_VALUE ? start : 0;
+
+            while (buf.remaining() >= IC_RECORD) {
+                int lc = buf.getInt();
+                int mclass = buf.get();
+                int opcode = buf.get();
+                int reg = buf.get();
+                char kind = (char) buf.get();
+                int id = buf.getInt();
+
+                if (mclass == 1) continue;
+                if (mclass == 2) {
+                    int address = id;
+                    Integer imported = null;
+                    boolean relocatable = kind == 'L';
+                    if (kind == 'S') {
+                        SymTuple s = symtable.get(id - 1);
+                        relocatable = !absolute.contains(s.symbol);
+                        imported = s.address.equals("-") ? imports.get(s.symbol) : null;
+                        if (imported != null) address = 0;
+                        else if (s.address.equals("-")) throw new IOException("undefined symbol " + s.symbol);
+                        else address = Integer.parseInt(s.address);
+                    } else if (kind == 'L') {
+                        address = literalAddr.get(id - 1);
+                        if (address < 0) throw new IOException("unplaced literal " + literals.get(id - 1));
+                    }
+                    obj.put(lc, ObjectModule.word(opcode, reg, address));
+                    if (imported != null) obj.fixup(lc, imported);
+                    else if (relocatable) obj.relocate(lc);
+                } else if (opcode == dcCode) {
+                    obj.put(lc, id);                    // DC
                 } else {
-                    objCode = opCodeStr + " 0 0";
+                    obj.reserve(lc + id);               // DS
                 }
-            } else {
-                objCode = "----";
             }
+        }
+
+        for (int i = 0; i < literals.size(); i++)
+            if (literalAddr.get(i) >= 0) obj.put(literalAddr.get(i), literalValue(literals.get(i)));
 
-            System.out.println(line + "      ->      " + objCode);
-            out_pass2.println(line + "      ->      " + objCode);
+        if (entries.isEmpty()) {
+            for (SymTuple s : symtable)
+                if (!s.address.equals("-"))
+                    obj.export(s.symbol, Integer.parseInt(s.address), absolute.contains(s.symbol) ? ObjectModule.ABSOLUTE : 0);
+        } else {
+            Map<String, String> defined = new HashMap<>();
+            for (SymTuple s : symtable) defined.put(s.symbol, s.address);
+            for (String name : entries) {
+                String address = defined.get(name);
+                if (address == null || address.equals("-")) throw new IOException("undefined entry " + name);
+                obj.export(name, Integer.parseInt(address),
+                        ObjectModule.GLOBAL | (absolute.contains(name) ? ObjectModule.ABSOLUTE : 0));
+            }
         }
 
-        br.close();
-        out_pass2.close();
+        obj.write(objFile);
+    }
+
+    // Opcode of DC in an instruction-set descriptor, 02 as in mot.txt when there is no descriptor
+    static int dcCode(String descriptor) throws IOException {
+        if (new File(descriptor).exists())
+            for (String row : Files.readAllLines(Paths.get(descriptor))) {
+                String[] arr = row.trim().split("\\s+");
+                if (arr.length >= 4 && arr[0].equals("DC")) return Integer.parseInt(arr[2]);
+            }
+        return 2;
+    }
+
+    // Link object modules into one, in the order given
+    public static void link(List<String> objFiles, String outFile) throws Exception {
+        List<ObjectModule> modules = new ArrayList<>();
+        for (String f : objFiles)
+            modules.add(ObjectModule.read(f));
+        Linker.link(modules).write(outFile);
+    }
+
+    // Value of a literal such as ='5'
+    static int literalValue(String literal) {
+        return Integer.parseInt(literal.replace("=", "").replace("'", "").trim());
+    }
+
+    // Pass II fed in memory by a running Pass I. Record blocks are taken from the queue and
+    // decoded while Pass I is still producing, an empty block marks the end. Symbol and literal
+    // addresses (by id, -1 if undefined) arrive once Pass I has finished and everything is resolved
+    // in one sweep.
+    public static void pass2(BlockingQueue<ByteBuffer> blocks, Future<int[]> symbols, Future<int[]> literals,
+                             PrintWriter out) throws Exception {
+        ICRecords ic = new ICRecords();
+        while (true) {
+            ByteBuffer block = blocks.take();
+            if (!block.hasRemaining()) break;
+            while (block.remaining() >= IC_RECORD)
+                ic.add(block);
+        }
+
+        int[] symAddr = symbols.get(), litAddr = literals.get();
+        for (int i = 0; i < ic.size; i++) {
+            String memAddr = "0";
+            if (ic.kind[i] == 'S') memAddr = address(symAddr, ic.id[i]);
+            else if (ic.kind[i] == 'L') memAddr = address(litAddr, ic.id[i]);
+            String line = describe(ic.lc[i], ic.mclass[i], ic.opcode[i], ic.reg[i], (char) ic.kind[i], ic.id[i]);
+            out.println(line + "      ->      " + objectCode(ic.mclass[i], ic.opcode[i], ic.reg[i], memAddr));
+        }
+        out.flush();
+    }
+
+    // Object code of one record, only IS records produce a word
+    public static String objectCode(int mclass, int opcode, int reg, String memAddr) {
+        if (mclass != 2) return "----";
+        return String.format("%02d", opcode) + " " + reg + " " + memAddr;
+    }
+
+    // Text form of a binary record, as Pass I prints it
+    public static String describe(int lc, int mclass, int opcode, int reg, char kind, int id) {
+        StringBuilder sb = new StringBuilder();
+        if (mclass != 1) sb.append(lc).append(" ");
+        sb.append("(").append(IC_CLASS[mclass]).append(",").append(String.format("%02d", opcode)).append(")");
+        if (reg != 0) sb.append(" ").append(reg);
+        if (kind != 0) sb.append(" (").append(kind).append(",").append(id).append(")");
+        return sb.toString();
     }
 
     public static void main(String[] args) throws Exception {
-        readSymbolTable();
-        pass2();
+        if (args.length > 0 && args[0].equals("-obj")) {
+            writeObject("A2/output_pass1.ic", "A2/symtable.txt", "A2/littab.txt", "A2/linktab.txt", "A2/output.obj",
+                    dcCode("A2/mot.txt"));
+            return;
+        }
+        if (args.length > 2 && args[0].equals("-link")) {
+            link(Arrays.asList(args).subList(2, args.length), args[1]);
+            return;
+        }
+        if (args.length > 1 && args[0].equals("-sym")) {
+            SymbolSnapshot snapshot = SymbolSnapshot.map("A2/symtab.bin");
+            for (int i = 1; i < args.length; i++) {
+                int id = snapshot.find(args[i]);
+                int a = id < 0 ? -1 : snapshot.address(id);
+                System.out.println(args[i] + "\t" + (id < 0 ? "not found" : a < 0 ? "-" : String.valueOf(a)));
+            }
+            return;
+        }
+
+        if (new File("A2/symtab.bin").exists()) readSymbolSnapshot("A2/symtab.bin");
+        else readSymbolTable();
+        if (new File("A2/littab.txt").exists()) readLiteralTable("A2/littab.txt");
+        if (args.length > 0 && args[0].equals("-parallel"))
+            pass2Parallel("A2/output_pass1.txt", "A2/output_pass2.txt", Runtime.getRuntime().availableProcessors());
+        else if (new File("A2/output_pass1.ic").exists())
+            pass2Binary();
+        else
+            pass2();
     }
 }
 
@@ -616,6 +3332,24 @@ create symtable.txt file
 
 /*
 create output_pass2.txt file (optional)
+
+if A2/output_pass1.ic (binary intermediate code from Pass I) exists,
+Pass II reads it instead of output_pass1.txt
+if A2/littab.txt (literal table from Pass I) exists, (L,n) operands get the literal's address
+if A2/symtab.bin (symbol table snapshot from Pass I) exists, it is used instead of A2/symtable.txt
+
+java A2.Assembler_PassTwo -sym TEMP ONE
+	looks symbols up by name in A2/symtab.bin
+
+java A2.Assembler_PassTwo -parallel
+	translates A2/output_pass1.txt on all cores into the same A2/output_pass2.txt (no console echo)
+
+java A2.Assembler_PassTwo -obj
+	writes the object module A2/output.obj from A2/output_pass1.ic,
+	A2/symtable.txt, A2/littab.txt and A2/linktab.txt (copy littab.txt and linktab.txt from Pass I)
+
+java A2.Assembler_PassTwo -link prog.obj a.obj b.obj
+	links object modules: EXTRN references are resolved against the ENTRY symbols of the others
 */
 
 
@@ -666,7 +3400,9 @@ pass2()
 
 Reads each line from output_pass1.txt.
 
-Extracts tokens between parentheses, e.g., (IS,04)(1)(S,1) → ["IS,04","1","S,1"].
+Decodes the line with translateLine(), the same decoder pass2Parallel() uses, so both
+(IS,04)(1)(S,1) and the Pass I form 100 (IS,04) 1 (S,2) are read; the register may be
+bare or in parentheses and any leading LC is copied through.
 
 Distinguishes between:
 
@@ -692,29 +3428,21 @@ Prints object code to console and writes to output_pass2.txt.
 
 Key Code Snippets
 
-Token extraction
+Line decoding
 
-List<String> tokens = new ArrayList<>();
-int i = 0;
-while (i < line.length()) {
-    if (line.charAt(i) == '(') {
-        int j = line.indexOf(')', i);
-        if (j > i) tokens.add(line.substring(i + 1, j));
-        i = j;
-    }
-    i++;
-}
+ByteBuffer ic = ByteBuffer.wrap(line.getBytes(StandardCharsets.ISO_8859_1));
+sb.setLength(0);
+if (!translateLine(ic, 0, ic.limit(), symAddress, litAddress, sb)) continue;
 
 
-Opcode and memory address handling
+Opcode and memory address handling (inside translateLine)
 
-if (first.startsWith("IS")) {
-    String[] isParts = first.split(",");
-    int opcode = Integer.parseInt(isParts[1]);
-    int reg = Integer.parseInt(tokens.get(1));
-    String memAddr = getSymbolAddress(tokens.get(2));
-    objCode = String.format("%02d %d %s", opcode, reg, memAddr);
-}
+int opcode = number(ic, p + 4, to);
+...
+int[] table = ic.get(p + 1) == 'S' ? symbols : literals;
+int n = number(ic, p + 3, to);
+if (n < 1 || n > table.length || table[n - 1] < 0) sb.append('-');
+else sb.append(table[n - 1]);
 
 2️⃣ Theoretical Questions & Answers
 Q1: What is Pass II of a two-pass assembler?
@@ -978,14 +3706,20 @@ package A3;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class MacroProcessor_PassOne {
 
-    static List<String> MDT = new ArrayList<>();              // Macro Definition Table
-    static Map<String, String> MNT = new LinkedHashMap<>();  // Macro Name Table
+    public static List<String> MDT = new ArrayList<>();       // Macro Definition Table
+    public static Map<String, String> MNT = new LinkedHashMap<>(); // Macro Name Table
     static Map<String, String> ALA = new HashMap<>();        // Argument List Array
     static int mntPtr = 0, mdtPtr = 0;
 
+    // Receives a line left after the definitions with its 1-based line number and its text as read
+    public interface LineConsumer {
+        void accept(String line, int lineNo, String raw);
+    }
+
     public static void main(String[] args) {
         try {
             pass1();
@@ -1000,14 +3734,54 @@ public class MacroProcessor_PassOne {
         PrintWriter out_mnt = new PrintWriter(new FileWriter("A3/MNT.txt"), true);
         PrintWriter out_mdt = new PrintWriter(new FileWriter("A3/MDT.txt"), true);
 
-        String s;
+        System.out.println("======================== Pass 1 Output ============================");
+
+        define(input, s -> {
+            out_pass1.println(s);
+            System.out.println(s);
+        });
+
+        input.close();
+
+        // Print and save MNT
+        System.out.println("\n======================== MNT ============================");
+        for (Map.Entry<String, String> entry : MNT.entrySet()) {
+            String row = entry.getKey() + " " + entry.getValue();
+            System.out.println(row);
+            out_mnt.println(row);
+        }
+
+        // Print and save MDT
+        System.out.println("\n======================== MDT ============================");
+        for (int i = 0; i < MDT.size(); i++) {
+            String row = i + " " + MDT.get(i);
+            System.out.println(row);
+            out_mdt.println(row);
+        }
+
+        out_pass1.close();
+        out_mnt.close();
+        out_mdt.close();
+    }
+
+    // Collect macro definitions into MNT and MDT, every other line goes to output
+    public static void define(BufferedReader input, Consumer<String> output) throws IOException {
+        define(input, (s, lineNo, raw) -> output.accept(s));
+    }
+
+    public static void define(BufferedReader input, LineConsumer output) throws IOException {
+        MDT = new ArrayList<>();
+        MNT = new LinkedHashMap<>();
+        mntPtr = mdtPtr = 0;
+
+        String raw, s;
+        int lineNo = 0;
         boolean processingMacroDefinition = false;
         boolean processMacroName = false;
 
-        System.out.println("======================== Pass 1 Output ============================");
-
-        while ((s = input.readLine()) != null) {
-            s = s.trim();
+        while ((raw = input.readLine()) != null) {
+            lineNo++;
+            s = raw.trim();
             if (s.length() == 0) continue;
 
             String[] s_arr = tokenizeString(s, " ");
@@ -1055,32 +3829,9 @@ public class MacroProcessor_PassOne {
 
             } else {
                 // Non-macro line, just output as intermediate code
-                out_pass1.println(s);
-                System.out.println(s);
+                output.accept(s, lineNo, raw);
             }
         }
-
-        input.close();
-
-        // Print and save MNT
-        System.out.println("\n======================== MNT ============================");
-        for (Map.Entry<String, String> entry : MNT.entrySet()) {
-            String row = entry.getKey() + " " + entry.getValue();
-            System.out.println(row);
-            out_mnt.println(row);
-        }
-
-        // Print and save MDT
-        System.out.println("\n======================== MDT ============================");
-        for (int i = 0; i < MDT.size(); i++) {
-            String row = i + " " + MDT.get(i);
-            System.out.println(row);
-            out_mdt.println(row);
-        }
-
-        out_pass1.close();
-        out_mnt.close();
-        out_mdt.close();
     }
 
     // Process macro argument list and store in ALA
@@ -1414,12 +4165,14 @@ package A4;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
+import A3.MacroProcessor_PassOne;
 
 public class MacroProcessor_PassTwo {
 
     static List<String> MDT;
     static Map<String, String> MNT;
-    static List<String> formalParams, actualParams;
+    static MacroTable table;   // MDT compiled for expansion
 
     public static void main(String[] args) {
         try {
@@ -1440,92 +4193,48 @@ public class MacroProcessor_PassTwo {
 
         String s;
         while ((s = input.readLine()) != null) {
-            String[] s_arr = tokenizeString(s, " ");
-            if (s_arr.length == 0) continue;
-
-            if (MNT.containsKey(s_arr[0])) {
-                // Macro call detected
-                String[] actParams = tokenizeString(s_arr[1], ",");
-                actualParams.clear();
-                for (String param : actParams) {
-                    if (param.contains("=")) {
-                        param = param.substring(param.indexOf("=") + 1);
-                    }
-                    actualParams.add(param);
-                }
-
-                int mdtPtr = Integer.parseInt(MNT.get(s_arr[0]));
-                boolean firstLine = true;
-
-                while (true) {
-                    String macroLine = MDT.get(mdtPtr);
-                    String[] tokens = tokenizeString(macroLine, " ");
-
-                    if (firstLine) {
-                        createFormalParamList(macroLine);
-                        firstLine = false;
-                    } else {
-                        if (tokens[0].equalsIgnoreCase("MEND")) {
-                            break;
-                        }
-                        // Replace positional parameters (#1, #2) with actual parameters
-                        String paramStr = replaceFormalParams(tokens[1]);
-                        String printStr = "\t" + tokens[0] + " " + paramStr;
-                        System.out.println(printStr);
-                        out_pass2.println(printStr);
-                    }
-                    mdtPtr++;
-                }
-
-            } else {
-                // Normal assembly line
-                System.out.println(s);
-                out_pass2.println(s);
-            }
+            expand(s, MDT, MNT, line -> {
+                System.out.println(line);
+                out_pass2.println(line);
+            });
         }
 
         input.close();
         out_pass2.close();
     }
 
-    static String replaceFormalParams(String formalParamList) {
-        String returnStr = "";
-        formalParamList = formalParamList.replace("#", "");
-        String[] paramArray = tokenizeString(formalParamList, ",");
-        for (int i = 0; i < paramArray.length; i++) {
-            String actualParam;
-            try {
-                int index = Integer.parseInt(paramArray[i]);
-                actualParam = actualParams.get(index - 1);
-            } catch (NumberFormatException e) {
-                actualParam = paramArray[i];
+    // Expand one source line, a macro call becomes its MDT body with actual parameters.
+    // Returns true when the line was a macro call.
+    public static boolean expand(String s, List<String> mdt, Map<String, String> mnt, Consumer<String> output) {
+        String[] s_arr = tokenizeString(s, " ");
+        if (s_arr.length == 0) return false;
+
+        if (table == null || table.mdt != mdt || table.mnt != mnt) table = new MacroTable(mdt, mnt);
+        table.update();
+
+        int start = table.start(s_arr[0]);
+        if (start >= 0) {
+            // Macro call detected
+            String[] actualParams = s_arr.length > 1 ? tokenizeString(s_arr[1], ",") : new String[0];
+            for (int i = 0; i < actualParams.length; i++) {
+                String param = actualParams[i];
+                if (param.contains("=")) {
+                    actualParams[i] = param.substring(param.indexOf("=") + 1);
+                }
             }
-            returnStr += actualParam + ",";
-        }
-        if (returnStr.endsWith(",")) {
-            returnStr = returnStr.substring(0, returnStr.length() - 1);
-        }
-        return returnStr;
-    }
+            table.expand(start, actualParams, output);
+            return true;
 
-    static void createFormalParamList(String macroDef) {
-        formalParams.clear();
-        String[] tokens = tokenizeString(macroDef, " ");
-        String argList = tokens[1];
-        String[] argArray = tokenizeString(argList, ",");
-        for (String param : argArray) {
-            if (param.contains("=")) {
-                param = param.substring(param.indexOf("=") + 1);
-            }
-            formalParams.add(param);
+        } else {
+            // Normal assembly line
+            output.accept(s);
+            return false;
         }
     }
 
     static void initializeTables() throws Exception {
         MDT = new ArrayList<>();
         MNT = new LinkedHashMap<>();
-        formalParams = new ArrayList<>();
-        actualParams = new ArrayList<>();
 
         // Read MNT
         BufferedReader br = new BufferedReader(new InputStreamReader(
@@ -1562,6 +4271,128 @@ public class MacroProcessor_PassTwo {
     }
 }
 
+// MDT compiled for expansion. Every entry is split once into its opcode and operands; an operand
+// #n becomes parameter slot n-1 and any other operand is kept as text, so expanding a call is a
+// copy of the body with the slots filled in. Entries are compiled as they are appended to the MDT,
+// a table still being defined can be expanded from.
+class MacroTable {
+    final List<String> mdt;
+    final Map<String, String> mnt;
+    final Map<String, Integer> starts = new HashMap<>();  // macro name -> MDT index of its name line
+    int count;                                          // MDT entries compiled so far
+
+    String[] prefix = new String[16];      // "\tOPCODE " of the entry
+    String[][] text = new String[16][];    // operands kept as text
+    int[][] slot = new int[16][];          // parameter slot of each operand, -1 for text
+    boolean[] mend = new boolean[16];
+
+    MacroTable(List<String> mdt, Map<String, String> mnt) {
+        this.mdt = mdt;
+        this.mnt = mnt;
+    }
+
+    // Compile the entries appended since the last call
+    void update() {
+        for (; count < mdt.size(); count++) {
+            if (count == mend.length) grow();
+            compile(count, mdt.get(count));
+        }
+    }
+
+    void grow() {
+        int n = mend.length * 2;
+        prefix = Arrays.copyOf(prefix, n);
+        text = Arrays.copyOf(text, n);
+        slot = Arrays.copyOf(slot, n);
+        mend = Arrays.copyOf(mend, n);
+    }
+
+    void compile(int i, String line) {
+        String[] tokens = MacroProcessor_PassTwo.tokenizeString(line, " ");
+        String op = tokens.length > 0 ? tokens[0] : "";
+        mend[i] = op.equalsIgnoreCase("MEND");
+
+        // The name line of a macro is the entry MNT points at
+        String at = mnt.get(op);
+        if (at != null && at.equals(String.valueOf(i))) starts.put(op, i);
+
+        String[] operands = tokens.length > 1 ? MacroProcessor_PassTwo.tokenizeString(tokens[1], ",") : new String[0];
+        prefix[i] = operands.length > 0 ? "\t" + op + " " : "\t" + op;
+        text[i] = operands;
+        slot[i] = new int[operands.length];
+        for (int j = 0; j < operands.length; j++)
+            slot[i][j] = parameter(operands[j]);
+    }
+
+    // Slot of a positional parameter #n, -1 for any other operand
+    static int parameter(String operand) {
+        if (operand.length() < 2 || operand.charAt(0) != '#') return -1;
+        int n = 0;
+        for (int k = 1; k < operand.length(); k++) {
+            char c = operand.charAt(k);
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+        }
+        return n - 1;
+    }
+
+    // MDT index of a macro's name line, -1 when name is not a macro
+    int start(String name) {
+        Integer i = starts.get(name);
+        return i == null ? -1 : i;
+    }
+
+    // Body lines of the macro starting at start, up to its MEND, with the actual parameters
+    void expand(int start, String[] actual, Consumer<String> output) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start + 1; i < count && !mend[i]; i++) {
+            sb.setLength(0);
+            sb.append(prefix[i]);
+            for (int j = 0; j < slot[i].length; j++) {
+                if (j > 0) sb.append(',');
+                sb.append(slot[i][j] >= 0 ? actual[slot[i][j]] : text[i][j]);
+            }
+            output.accept(sb.toString());
+        }
+    }
+}
+
+// Macro processor in one pass: a definition goes into MNT and MDT as it is read and a call is
+// expanded as soon as it is seen, with the definitions read so far. Macros must be defined before
+// their first call, a call ahead of its definition is copied through like any other line. The
+// MacroTable behind expand compiles each definition as soon as its lines are collected.
+class MacroProcessor_OnePass {
+
+    public static void main(String[] args) {
+        try {
+            process("A4/input.txt", "A4/output_onepass.txt");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    static void process(String inFile, String outFile) throws Exception {
+        BufferedReader input = new BufferedReader(new FileReader(inFile));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(outFile)));
+
+        System.out.println("=========== One Pass Output ============");
+
+        expand(input, line -> {
+            System.out.println(line);
+            out.println(line);
+        });
+
+        input.close();
+        out.close();
+    }
+
+    // Lines leave the definition collector already in order, each one is expanded on the spot
+    static void expand(BufferedReader input, Consumer<String> output) throws IOException {
+        MacroProcessor_PassOne.define(input, s -> MacroProcessor_PassTwo.expand(s,
+                MacroProcessor_PassOne.MDT, MacroProcessor_PassOne.MNT, output));
+    }
+}
+
 
 
 /*
@@ -1593,6 +4424,12 @@ create MDT.txt file
 
 /*
 create output_pass2.txt file (optional)
+
+one pass, macros defined before they are called
+		java A4.MacroProcessor_OnePass   (A4/input.txt with its MACRO ... MEND definitions)
+		create output_onepass.txt file  (same lines as output_pass2.txt, no MNT.txt/MDT.txt needed)
+
+expansion uses the MDT compiled into MacroTable: opcode and operands split once, #n kept as slot n-1
 */
 
 /*